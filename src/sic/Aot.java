@@ -0,0 +1,115 @@
+package sic;
+
+import sic.aot.Translator;
+import sic.common.Logger;
+import sic.common.Utils;
+import sic.loader.Loader;
+import sic.loader.ObjSection;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+
+/**
+ * Ahead-of-time translator of Sic/XE object files into Java classes.
+ */
+public class Aot {
+
+    public static final int Version_Major = 2;
+    public static final int Version_Minor = 0;
+    public static final int Version_Patch = 1;
+
+    static void printHelp() {
+        System.out.print(
+        "Sic/XE Ahead-of-time Translator " + Version_Major + "." + Version_Minor + "." + Version_Patch + "\n" +
+        "Usage: java sic.Aot options file.obj\n" +
+        "Options:\n" +
+        "    -help|-h       Print help.\n" +
+        "    -o name        Name of the generated class (default: file basename).\n" +
+        "    -d dir         Output directory (default: current directory).\n" +
+        "    -compile       Compile the generated source into a class file.\n" +
+        "\n" +
+        "Run the translated program with: java -cp sictools.jar:dir name\n"
+        );
+    }
+
+    // turn a file or section name into a valid Java class name
+    static String toClassName(String name) {
+        StringBuilder b = new StringBuilder();
+        for (char c : name.toCharArray())
+            b.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        if (b.length() == 0 || !Character.isJavaIdentifierStart(b.charAt(0))) b.insert(0, 'P');
+        b.setCharAt(0, Character.toUpperCase(b.charAt(0)));
+        return b.toString();
+    }
+
+    public static void main(String[] args) {
+        String className = null;
+        String outDir = ".";
+        boolean compile = false;
+        int last = 0;
+        while (last < args.length && args[last].startsWith("-")) {
+            switch (args[last]) {
+                case "-help":
+                case "-h":
+                    printHelp();
+                    System.exit(0);
+                case "-o":
+                    className = args[++last];
+                    break;
+                case "-d":
+                    outDir = args[++last];
+                    break;
+                case "-compile":
+                    compile = true;
+                    break;
+                default:
+                    Logger.fmterr("Unknown option '%s'.", args[last]);
+                    System.exit(1);
+            }
+            last++;
+        }
+        if (last >= args.length) {
+            printHelp();
+            System.exit(1);
+        }
+        String filename = args[last];
+
+        ObjSection section;
+        try (Reader reader = new FileReader(filename)) {
+            section = Loader.readSection(reader);
+        } catch (IOException e) {
+            Logger.fmterr("Error reading file '%s'.", filename);
+            System.exit(1);
+            return;
+        }
+        if (section == null) {
+            Logger.fmterr("Invalid object file '%s'.", filename);
+            System.exit(1);
+        }
+        if (className == null) className = toClassName(new File(Utils.getFileBasename(filename)).getName());
+
+        File source = new File(outDir, className + ".java");
+        Translator translator = new Translator(section, className);
+        try (Writer writer = new BufferedWriter(new FileWriter(source))) {
+            translator.translate(writer);
+        } catch (IOException e) {
+            Logger.fmterr("Error writing file '%s'.", source.getPath());
+            System.exit(1);
+        }
+        System.out.printf("Translated %d instructions in %d blocks into '%s'.\n",
+                translator.getInstructionCount(), translator.getBlockCount(), source.getPath());
+
+        if (compile) {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                Logger.err("No Java compiler available, compile the source with javac.");
+                System.exit(1);
+            }
+            int result = compiler.run(null, null, null, "-cp", System.getProperty("java.class.path"),
+                    "-d", outDir, source.getPath());
+            System.exit(result);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package sic;
+
+import sic.batch.Job;
+import sic.batch.Result;
+import sic.common.Logger;
+import sic.runtime.SicRuntime;
+import sic.sim.vm.MachinePool;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many programs in parallel in a single JVM and reports their results.
+ */
+public class Batch {
+
+    public static final int Version_Major = 2;
+    public static final int Version_Minor = 0;
+    public static final int Version_Patch = 1;
+
+    static void printHelp() {
+        System.out.print(
+        "Sic/XE Batch Runner " + Version_Major + "." + Version_Minor + "." + Version_Patch + "\n" +
+        "Usage: java sic.Batch options manifest\n" +
+        "Options:\n" +
+        "    -help|-h       Print help.\n" +
+        "    -threads n     Number of worker threads (default: number of processors).\n" +
+        "    -budget n      Default instruction budget of a job (default: unlimited).\n" +
+        "    -time ms       Default time limit of a job (default: unlimited).\n" +
+        "    -o file        Write the report to the file (default: standard output).\n" +
+        "\n" +
+        "Each line of the manifest is a job:\n" +
+        "    file.obj|file.asm [-budget n] [-time ms] [-input \"text\"] [-stdin file] [-dump address,length]...\n" +
+        "Text may contain the escapes \\n \\t \\r \\\" \\\\ and \\xHH, # starts a comment.\n" +
+        "Other devices than standard input, output and error read EOF and ignore writes.\n" +
+        "\n" +
+        "The report has a line of JSON per job, in the order of the manifest. Messages of the assembler and\n" +
+        "the simulator, e.g. invalid addresses, are in its \"messages\" and not printed.\n"
+        );
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long budget = 0;
+        long nanos = 0;
+        String output = null;
+        int last = 0;
+        while (last < args.length && args[last].startsWith("-")) {
+            switch (args[last]) {
+                case "-help":
+                case "-h":
+                    printHelp();
+                    System.exit(0);
+                case "-threads":
+                    threads = Integer.parseInt(args[++last]);
+                    break;
+                case "-budget":
+                    budget = Long.parseLong(args[++last]);
+                    break;
+                case "-time":
+                    nanos = Long.parseLong(args[++last]) * 1000000;
+                    break;
+                case "-o":
+                    output = args[++last];
+                    break;
+                default:
+                    Logger.fmterr("Unknown option '%s'.", args[last]);
+                    System.exit(1);
+            }
+            last++;
+        }
+        if (last >= args.length) {
+            printHelp();
+            System.exit(1);
+        }
+        File manifest = new File(args[last]);
+
+        List<Job> jobs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            for (int number = 1; (line = reader.readLine()) != null; number++) {
+                try {
+                    Job job = Job.parse(jobs.size(), line, manifest.getAbsoluteFile().getParentFile(), budget, nanos);
+                    if (job != null) jobs.add(job);
+                } catch (IllegalArgumentException e) {
+                    Logger.fmterr("%s:%d: %s.", manifest, number, e.getMessage());
+                    System.exit(1);
+                }
+            }
+        } catch (IOException e) {
+            Logger.fmterr("Error reading file '%s'.", e.getMessage());
+            System.exit(1);
+        }
+
+        // jobs are independent, a work-stealing pool keeps all threads busy when their lengths differ
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        MachinePool machines = new MachinePool(false, threads);
+        machines.prestart(threads);
+        SicRuntime runtime = new SicRuntime(machines);
+        List<Future<Result>> results = new ArrayList<>();
+        for (Job job : jobs)
+            results.add(pool.submit(() -> job.run(runtime)));
+
+        int failed = 0;
+        try (PrintStream report = output == null ? System.out
+                : new PrintStream(new BufferedOutputStream(new FileOutputStream(output)), false, "UTF-8")) {
+            for (Future<Result> future : results) {
+                Result result = future.get();
+                if (result.reason == null) failed++;
+                report.println(result.toJson());
+            }
+        } catch (IOException e) {
+            Logger.fmterr("Error writing file '%s'.", output);
+            System.exit(1);
+        } catch (InterruptedException | ExecutionException e) {
+            Logger.fmterr("Job failed: %s", e.getCause());
+            System.exit(1);
+        }
+        pool.shutdown();
+        if (output != null)
+            System.out.printf("Ran %d jobs in %.3f s, %d could not be loaded.\n",
+                    jobs.size(), (System.nanoTime() - start) / 1e9, failed);
+        System.exit(failed > 0 ? 2 : 0);
+    }
+
+}
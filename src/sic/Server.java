@@ -0,0 +1,150 @@
+package sic;
+
+import sic.common.Logger;
+import sic.runtime.SicRuntime;
+import sic.server.Handler;
+import sic.server.Message;
+import sic.sim.vm.MachinePool;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+
+/**
+ * Local job server: assembles, links and runs programs sent over a socket in a warm JVM,
+ * so tools that need many small jobs avoid starting a new JVM for each. See sic.server.Handler for requests.
+ */
+public class Server {
+
+    public static final int Version_Major = 2;
+    public static final int Version_Minor = 0;
+    public static final int Version_Patch = 1;
+
+    static void printHelp() {
+        System.out.print(
+        "Sic/XE Job Server " + Version_Major + "." + Version_Minor + "." + Version_Patch + "\n" +
+        "Usage: java sic.Server options\n" +
+        "Options:\n" +
+        "    -help|-h       Print help.\n" +
+        "    -port n        Listen on the loopback interface on the port (default: 5151).\n" +
+        "    -socket path   Listen on the Unix domain socket instead.\n" +
+        "    -threads n     Number of worker threads (default: number of processors).\n" +
+        "\n" +
+        "A message is a 32-bit length followed by fields, each a 16-bit name length, the name,\n" +
+        "a 32-bit value length and the value; all numbers are big-endian.\n" +
+        "Requests have an 'op' field: assemble, link or run, and an optional 'id' copied into the response.\n" +
+        "Requests of a connection may be sent without waiting, responses are sent as soon as they are done.\n"
+        );
+    }
+
+    public static void main(String[] args) {
+        int port = 5151;
+        String socket = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-help":
+                case "-h":
+                    printHelp();
+                    System.exit(0);
+                case "-port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "-socket":
+                    socket = args[++i];
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    Logger.fmterr("Unknown option '%s'.", args[i]);
+                    System.exit(1);
+            }
+        }
+
+        MachinePool machines = new MachinePool(false, threads);
+        machines.prestart(threads);
+        Handler handler = new Handler(new SicRuntime(machines));
+        ForkJoinPool workers = new ForkJoinPool(threads);
+        // a connection mostly waits for its next request, so each gets its own reading thread
+        ExecutorService readers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        SocketAddress address;
+        try {
+            ServerSocketChannel server;
+            if (socket != null) {
+                Path path = Path.of(socket);
+                server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                address = UnixDomainSocketAddress.of(path);
+                server.bind(address);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException ignored) {
+                    }
+                }));
+            } else {
+                server = ServerSocketChannel.open();
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+                server.bind(address);
+            }
+            System.out.println("Listening on " + address + ".");
+            while (true) {
+                SocketChannel channel = server.accept();
+                readers.execute(() -> serve(channel, handler, workers));
+            }
+        } catch (IOException e) {
+            Logger.fmterr("Server error: %s", e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void serve(SocketChannel channel, Handler handler, ForkJoinPool workers) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            // counts the requests in progress, so responses are sent before the connection is closed
+            Phaser pending = new Phaser(1);
+            Message request;
+            while ((request = Message.read(in)) != null) {
+                Message r = request;
+                pending.register();
+                workers.execute(() -> {
+                    try {
+                        ByteArrayOutputStream response = new ByteArrayOutputStream();
+                        handler.handle(r).write(new DataOutputStream(response));
+                        // written to the channel directly, its output stream would wait for the blocked reader
+                        ByteBuffer buffer = ByteBuffer.wrap(response.toByteArray());
+                        synchronized (channel) {
+                            while (buffer.hasRemaining()) channel.write(buffer);
+                        }
+                    } catch (IOException ignored) {
+                        // the client went away, its remaining requests are dropped with the connection
+                    } finally {
+                        pending.arriveAndDeregister();
+                    }
+                });
+            }
+            pending.arriveAndAwaitAdvance();
+        } catch (IOException e) {
+            // malformed message or broken connection, the client must reconnect
+        }
+    }
+
+}
@@ -5,6 +5,7 @@ import sic.disasm.Disassembler;
 import sic.sim.Args;
 import sic.sim.Executor;
 import sic.sim.MainView;
+import sic.sim.vm.DeviceLog;
 import sic.sim.vm.Machine;
 
 import javax.swing.UIManager;
@@ -49,13 +50,23 @@ public class Sim {
             return;
         }
 
-        Machine machine = new Machine();
+        if (processedArgs.getCores() > 1) VM.runSmp(processedArgs);
+
+        Machine machine = new Machine(processedArgs.isSparse());
         Executor executor = new Executor(machine, processedArgs);
+        // recording runs one instruction at a time, without lean or block execution
+        if (processedArgs.isReverse()) executor.setReverseExecution(Executor.UndoLogSize);
+        // checkpoints of sparse memory share its pages, those of flat memory copy them
+        if (processedArgs.isSparse() || processedArgs.isCheckpoints())
+            executor.setCheckpointing(Executor.CheckpointInterval);
         Disassembler disassembler = new Disassembler(new Mnemonics(), machine);
 
         final MainView mainView = new MainView(executor, disassembler, processedArgs);
 
         if (processedArgs.hasFilename()) mainView.load(new File(processedArgs.getFilename()));
+        DeviceLog deviceLog = VM.openDeviceLog(machine, processedArgs);
+        // the window closes the application with System.exit
+        if (deviceLog != null) Runtime.getRuntime().addShutdownHook(new Thread(deviceLog::close));
 
         mainView.updateView();
 
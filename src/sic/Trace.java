@@ -0,0 +1,105 @@
+package sic;
+
+import sic.common.Logger;
+import sic.common.Mnemonics;
+import sic.disasm.Disassembler;
+import sic.sim.trace.TraceReader;
+import sic.sim.vm.Machine;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Decoder of binary execution traces written by sic.VM -trace.
+ */
+public class Trace {
+
+    public static final int Version_Major = 2;
+    public static final int Version_Minor = 0;
+    public static final int Version_Patch = 1;
+
+    private static final String[] REGISTER_NAMES = {"A", "X", "L", "B", "S", "T", "SW"};
+
+    static void printHelp() {
+        System.out.print(
+        "Sic/XE Trace Decoder " + Version_Major + "." + Version_Minor + "." + Version_Patch + "\n" +
+        "Usage: java sic.Trace options file.trace\n" +
+        "Options:\n" +
+        "    -help|-h       Print help.\n" +
+        "    -regs          Print all registers after every instruction, not only the changed ones.\n" +
+        "    -from count    Skip instructions before the given instruction count.\n" +
+        "    -to count      Stop after the given instruction count.\n" +
+        "\n" +
+        "Each line shows the instruction count, address, bytes and disassembly of an instruction,\n" +
+        "the memory it read (R) and wrote (W) and the registers after it. An instruction stopped by\n" +
+        "a data breakpoint shows no bytes and is executed again on the next line.\n"
+        );
+    }
+
+    public static void main(String[] args) {
+        boolean allRegisters = false;
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        int last = 0;
+        while (last < args.length && args[last].startsWith("-")) {
+            switch (args[last]) {
+                case "-help":
+                case "-h":
+                    printHelp();
+                    System.exit(0);
+                case "-regs":
+                    allRegisters = true;
+                    break;
+                case "-from":
+                    from = Long.parseLong(args[++last]);
+                    break;
+                case "-to":
+                    to = Long.parseLong(args[++last]);
+                    break;
+                default:
+                    Logger.fmterr("Unknown option '%s'.", args[last]);
+                    System.exit(1);
+            }
+            last++;
+        }
+        if (last >= args.length) {
+            printHelp();
+            System.exit(1);
+        }
+        String filename = args[last];
+
+        // instructions are disassembled from a scratch machine holding just their bytes
+        Machine scratch = new Machine(true);
+        Disassembler disassembler = new Disassembler(new Mnemonics(), scratch);
+        StringBuilder line = new StringBuilder();
+        try (TraceReader reader = new TraceReader(Paths.get(filename))) {
+            while (reader.next() && reader.count <= to) {
+                if (reader.count < from) continue;
+                line.setLength(0);
+                StringBuilder bytes = new StringBuilder();
+                for (int i = 0; i < reader.length; i++) {
+                    scratch.memory.setByteRaw(reader.pc + i, reader.bytes[i] & 0xFF);
+                    bytes.append(String.format("%02X", reader.bytes[i] & 0xFF));
+                }
+                line.append(String.format("%10d  %06X  %-8s  %-24s", reader.count, reader.pc, bytes,
+                        reader.aborted ? "(data breakpoint)" : disassembler.disassembleSafe(reader.pc)));
+                if (reader.readAddress >= 0)
+                    line.append(String.format(" R %06X+%d", reader.readAddress, reader.readLength));
+                if (reader.writeAddress >= 0)
+                    line.append(String.format(" W %06X+%d", reader.writeAddress, reader.writeLength));
+                for (int i = 0; i < REGISTER_NAMES.length; i++)
+                    if (allRegisters || (reader.changed & 1 << i) != 0)
+                        line.append(String.format(" %s=%06X", REGISTER_NAMES[i], reader.registers[i] & 0xFFFFFF));
+                if (allRegisters || (reader.changed & 1 << REGISTER_NAMES.length) != 0)
+                    line.append(" F=").append(reader.f);
+                System.out.println(line.toString().stripTrailing());
+                // the output was closed, e.g. by head
+                if (System.out.checkError()) break;
+            }
+        } catch (IOException e) {
+            Logger.fmterr("Error reading trace '%s'.", filename);
+            System.exit(1);
+        }
+    }
+
+}
@@ -1,13 +1,23 @@
 package sic;
 
 import sic.common.Logger;
+import sic.common.SICXE;
 import sic.loader.Loader;
 import sic.sim.Args;
 import sic.sim.Executor;
 import sic.sim.addons.GraphicalScreen;
 import sic.sim.addons.TextualScreen;
+import sic.sim.trace.TraceWriter;
+import sic.sim.vm.DeviceLog;
 import sic.sim.vm.Machine;
+import sic.sim.vm.Registers;
+import sic.sim.vm.Smp;
+import sic.sim.vm.Snapshot;
+import sic.sim.vm.StopReason;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -27,23 +37,102 @@ public class VM {
         Args.printArgs();
     }
 
+    static DeviceLog openDeviceLog(Machine machine, Args arg) {
+        String filename = arg.getReplay() != null ? arg.getReplay() : arg.getRecord();
+        if (filename == null) return null;
+        try {
+            DeviceLog log = arg.getReplay() != null ? DeviceLog.replay(machine, filename) : DeviceLog.record(machine, filename);
+            machine.setDeviceLog(log);
+            return log;
+        } catch (IOException e) {
+            Logger.fmterr("Cannot open device log '%s'.", filename);
+            return null;
+        }
+    }
+
+    static void load(Machine machine, Args arg) {
+        String ext = arg.getFileext();
+        if ("asm".equals(ext)) Loader.loadAsm(machine, arg.getFilename());
+        else if ("obj".equals(ext)) Loader.loadObj(machine, arg.getFilename());
+        else if (Snapshot.EXTENSION.equals(ext)) Snapshot.load(machine, arg.getFilename());
+        else Logger.fmterr("Invalid filename extension '%s'", ext);
+    }
+
+    /**
+     * Write the registers and the memory range given by -m to the file dump, as the simulator tests expect,
+     * see tests/simulator-test.
+     */
+    static void dump(Machine machine, Args arg) {
+        Registers r = machine.registers;
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("A: %06X\nX: %06X\nL: %06X\nB: %06X\nS: %06X\nT: %06X\nF: %012X\n",
+                r.getA(), r.getX(), r.getL(), r.getB(), r.getS(), r.getT(), SICXE.floatToBits(r.getF())));
+        int end = arg.getDumpStart() + arg.getDumpLength();
+        for (int line = arg.getDumpStart(); line < end; line += 16) {
+            out.append(String.format("%06x: ", line));
+            for (int address = line; address < line + 16 && address < end; address++)
+                out.append(String.format("%02x ", machine.memory.getByteRaw(address)));
+            out.append('\n');
+        }
+        out.append('\n');
+        try {
+            Files.writeString(Paths.get("dump"), out);
+        } catch (IOException e) {
+            Logger.err("Cannot write dump.");
+        }
+    }
+
+    /**
+     * Run the program on a multiprocessor until all cores halt, without the executor and screens.
+     */
+    static void runSmp(Args arg) throws InterruptedException {
+        if (arg.getTrace() != null || arg.getRecord() != null || arg.getReplay() != null)
+            Logger.err("Tracing and recording need a single core, ignored.");
+        Smp smp = new Smp(arg.getCores());
+        smp.setModes(!arg.isFull(), arg.isBlocks());
+        if (arg.hasFilename()) load(smp.getCore(0), arg);
+        smp.boot();
+        long start = System.nanoTime();
+        StopReason reason = smp.run(0, 0);
+        long nanos = System.nanoTime() - start;
+        if (reason != StopReason.HALT) Logger.fmterr("Stopped: %s.", reason);
+        if (arg.isStats()) {
+            for (int i = 0; i < smp.getCoreCount(); i++)
+                System.out.printf("Core %d: %d instructions\n", i, smp.getCore(i).getInstructionCount());
+            System.out.printf("Instructions executed: %d in %.3f s\n", smp.getInstructionCount(), nanos / 1e9);
+        }
+        if (arg.hasDump()) dump(smp.getCore(0), arg);
+        if (arg.getSnapshot() != null) Snapshot.save(smp.getCore(0), arg.getSnapshot());
+        System.exit(reason == StopReason.HALT ? 0 : 1);
+    }
+
     public static void main(String[] args) throws Exception {
         Args arg = new Args(args);
         if (arg.isHelp()) {
             printHelp();
             System.exit(0);
         }
+        if (arg.getCores() > 1) runSmp(arg);
 
-        Machine machine = new Machine();
+        Machine machine = new Machine(arg.isSparse());
         Executor executor = new Executor(machine, arg);
+        executor.setLeanExecution(!arg.isFull());
+        if (arg.getFreq() <= 0) executor.setTurbo(true);
 
-        if (arg.hasFilename()) {
-            String ext = arg.getFileext();
-            if ("asm".equals(ext)) Loader.loadAsm(machine, arg.getFilename());
-            else if ("obj".equals(ext)) Loader.loadObj(machine, arg.getFilename());
-            else Logger.fmterr("Invalid filename extension '%s'", ext);
+        if (arg.hasFilename()) load(machine, arg);
+
+        TraceWriter trace = null;
+        if (arg.getTrace() != null) {
+            try {
+                trace = new TraceWriter(Paths.get(arg.getTrace()), machine);
+                machine.setTrace(trace);
+            } catch (IOException e) {
+                Logger.fmterr("Cannot write trace '%s'.", arg.getTrace());
+            }
         }
 
+        DeviceLog deviceLog = openDeviceLog(machine, arg);
+
         final TextualScreen textScreen = arg.isTextScr() ? new TextualScreen(executor) : null;
         final GraphicalScreen graphicalScreen = arg.isGraphScr() ? new GraphicalScreen(executor) : null;
 
@@ -71,6 +160,10 @@ public class VM {
         while (executor.isRunning()) {
             Thread.sleep(500);
         }
+        if (arg.hasDump()) dump(machine, arg);
+        if (arg.getSnapshot() != null) Snapshot.save(machine, arg.getSnapshot());
+        if (trace != null) trace.close();
+        if (deviceLog != null) deviceLog.close();
         System.exit(0);
     }
 
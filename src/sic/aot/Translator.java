@@ -0,0 +1,417 @@
+package sic.aot;
+
+import sic.common.Conversion;
+import sic.common.Flags;
+import sic.common.Opcode;
+import sic.common.SICXE;
+import sic.loader.ObjSection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Ahead-of-time translator of a loaded object section into Java source.
+ *
+ * All code reachable from the entry point through fall-through and static jump targets is
+ * split into basic blocks and every block becomes a static method. The generated run method
+ * dispatches on PC: addresses without a translated block (computed jumps, RSUB targets, code
+ * that could not be decoded) are executed by the Machine interpreter. Translated code is
+ * watched in memory; once the program writes into it, execution continues in the interpreter.
+ */
+public class Translator {
+
+    // decoded instruction of the program image
+    private static class Instruction {
+        int address;
+        int size;
+        int opcode;             // first byte
+        int format;             // 1, 2 or 3 (also SIC and F4)
+        int operand;            // F2: register byte, F3/F4: operand with PC-relative part resolved
+        Flags flags;
+        boolean base;
+        boolean indexed;
+        boolean indirectX;
+
+        int next() {
+            return address + size;
+        }
+
+        int op() {
+            return format == 3 ? opcode & 0xFC : opcode;
+        }
+
+        boolean isJump() {
+            if (format != 3) return false;
+            switch (op()) {
+                case Opcode.J: case Opcode.JEQ: case Opcode.JGT: case Opcode.JLT:
+                case Opcode.JSUB: case Opcode.RSUB:
+                    return true;
+            }
+            return false;
+        }
+
+        // target of a jump if it is known statically, -1 otherwise
+        int target() {
+            if (op() == Opcode.RSUB || flags.isIndirect() || base || indexed) return -1;
+            return SICXE.intToAddr(operand);
+        }
+    }
+
+    private final ObjSection section;
+    private final String className;
+    private final byte[] image = new byte[SICXE.SIZE_MEM];
+    private final boolean[] loaded = new boolean[SICXE.SIZE_MEM];
+
+    // longest straight-line block, keeps the generated methods well below the JVM method size limit
+    private static final int MAX_BLOCK_LENGTH = 256;
+
+    private final Map<Integer, Instruction> instructions = new TreeMap<>();
+    private final TreeSet<Integer> leaders = new TreeSet<>();
+
+    public Translator(ObjSection section, String className) {
+        this.section = section;
+        this.className = className;
+        for (ObjSection.Text text : section.getTexts())
+            for (int i = 0; i < text.data.length; i++) {
+                image[text.address + i] = text.data[i];
+                loaded[text.address + i] = true;
+            }
+    }
+
+    private int fetch(int address) {
+        return image[address] & 0xFF;
+    }
+
+    // same decoding as the interpreter; null if the instruction is left to the interpreter
+    private Instruction decode(int address) {
+        if (address < 0 || address + 4 > SICXE.MAX_ADDR || !loaded[address]) return null;
+        Instruction instr = new Instruction();
+        instr.address = address;
+        instr.opcode = fetch(address);
+        switch (instr.opcode) {
+            case Opcode.FLOAT: case Opcode.FIX:
+                instr.format = 1;
+                instr.size = 1;
+                return instr;
+            case Opcode.NORM: case Opcode.SIO: case Opcode.HIO: case Opcode.TIO:
+                return null;
+        }
+        int op = fetch(address + 1);
+        switch (instr.opcode) {
+            case Opcode.ADDR: case Opcode.SUBR: case Opcode.MULR: case Opcode.DIVR:
+            case Opcode.COMPR: case Opcode.SHIFTL: case Opcode.SHIFTR: case Opcode.RMO:
+            case Opcode.CLEAR: case Opcode.TIXR:
+                instr.format = 2;
+                instr.size = 2;
+                instr.operand = op;
+                return loaded[address + 1] ? instr : null;
+            case Opcode.SVC:
+                return null;
+        }
+        int opcode = instr.opcode & 0xFC;
+        if (!Opcode.isValid(opcode) || opcode == Opcode.LPS || opcode == Opcode.STI || opcode == Opcode.SSK)
+            return null;
+        Flags flags = new Flags(instr.opcode, op);
+        instr.format = 3;
+        instr.flags = flags;
+        if (flags.isSic()) {
+            instr.size = 3;
+            instr.operand = flags.operandSic(op, fetch(address + 2));
+        } else if (flags.isExtended()) {
+            if (flags.isRelative()) return null;
+            instr.size = 4;
+            instr.operand = flags.operandF4(op, fetch(address + 2), fetch(address + 3));
+        } else {
+            instr.size = 3;
+            instr.operand = flags.operandF3(op, fetch(address + 2));
+            if (flags.isPCRelative())
+                instr.operand = flags.operandPCRelative(instr.operand) + address + 3;
+            else if (flags.isBaseRelative())
+                instr.base = true;
+            else if (!flags.isAbsolute())
+                return null;
+        }
+        if (flags.isIndexed())
+            if (flags.isSimple()) instr.indexed = true;
+            else if (flags.isIndirect()) instr.indirectX = true;
+            else return null;
+        for (int a = address; a < instr.next(); a++)
+            if (!loaded[a]) return null;
+        return instr;
+    }
+
+    /**
+     * Find all code reachable from the entry point.
+     */
+    private void analyze() {
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(section.getEntry());
+        leaders.add(section.getEntry());
+        while (!work.isEmpty()) {
+            int address = work.pop();
+            if (instructions.containsKey(address)) continue;
+            Instruction instr = decode(address);
+            if (instr == null) continue;
+            instructions.put(address, instr);
+            boolean fallThrough = true;
+            if (instr.isJump()) {
+                int target = instr.target();
+                if (target >= 0) {
+                    leaders.add(target);
+                    work.push(target);
+                }
+                fallThrough = instr.op() != Opcode.J && instr.op() != Opcode.RSUB;
+                if (fallThrough) leaders.add(instr.next());
+            }
+            if (fallThrough) work.push(instr.next());
+        }
+        // split long straight-line runs
+        Deque<Integer> blocks = new ArrayDeque<>(leaders);
+        while (!blocks.isEmpty()) {
+            int address = blocks.pop();
+            int length = 0;
+            Instruction instr = instructions.get(address);
+            while (instr != null && !instr.isJump()) {
+                address = instr.next();
+                if (leaders.contains(address)) break;
+                if (++length == MAX_BLOCK_LENGTH) {
+                    leaders.add(address);
+                    blocks.push(address);
+                    break;
+                }
+                instr = instructions.get(address);
+            }
+        }
+    }
+
+    // ************ code generation
+
+    private static String hex(int value) {
+        return String.format("0x%05X", value);
+    }
+
+    private static String blockName(int address) {
+        return "block" + Conversion.addrToHex(address);
+    }
+
+    private static String address(Instruction instr) {
+        String a = hex(instr.operand);
+        if (instr.base) a += " + r.getB()";
+        if (instr.indexed) a += " + r.getXs()";
+        return a;
+    }
+
+    // source of a translated instruction or null if it should be interpreted
+    private static String translateInstruction(Instruction instr) {
+        if (instr.format == 2) {
+            int r1 = (instr.operand & 0xF0) >> 4;
+            int r2 = instr.operand & 0x0F;
+            switch (instr.opcode) {
+                case Opcode.ADDR:   return String.format("r.set(%d, r.get(%d) + r.get(%d));", r2, r2, r1);
+                case Opcode.SUBR:   return String.format("r.set(%d, r.get(%d) - r.get(%d));", r2, r2, r1);
+                case Opcode.COMPR:  return String.format("r.setSWAfterCompare(r.gets(%d) - r.gets(%d));", r1, r2);
+                case Opcode.RMO:    return String.format("r.set(%d, r.get(%d));", r2, r1);
+                case Opcode.CLEAR:  return String.format("r.set(%d, 0);", r1);
+                case Opcode.TIXR:   return String.format("r.setX(r.getX() + 1); r.setSWAfterCompare(r.getXs() - r.gets(%d));", r1);
+            }
+            return null;
+        }
+        if (instr.format != 3 || instr.flags.isIndirect()) return null;
+        boolean immediate = instr.flags.isImmediate();
+        if (immediate && instr.base) return null;
+        String value = immediate ? hex(instr.operand) : "mem.getWord(" + address(instr) + ")";
+        switch (instr.op()) {
+            case Opcode.LDA:    return "r.setA(" + value + ");";
+            case Opcode.LDX:    return "r.setX(" + value + ");";
+            case Opcode.LDL:    return "r.setL(" + value + ");";
+            case Opcode.LDB:    return "r.setB(" + value + ");";
+            case Opcode.LDS:    return "r.setS(" + value + ");";
+            case Opcode.LDT:    return "r.setT(" + value + ");";
+            case Opcode.LDCH:   return "r.setALo(" + (immediate ? hex(instr.operand) : "mem.getByte(" + address(instr) + ")") + ");";
+            case Opcode.STA:    return "mem.setWord(" + address(instr) + ", r.getA());";
+            case Opcode.STX:    return "mem.setWord(" + address(instr) + ", r.getX());";
+            case Opcode.STL:    return "mem.setWord(" + address(instr) + ", r.getL());";
+            case Opcode.STB:    return "mem.setWord(" + address(instr) + ", r.getB());";
+            case Opcode.STS:    return "mem.setWord(" + address(instr) + ", r.getS());";
+            case Opcode.STT:    return "mem.setWord(" + address(instr) + ", r.getT());";
+            case Opcode.STCH:   return "mem.setByte(" + address(instr) + ", r.getA());";
+            case Opcode.ADD:    return "r.setA(r.getA() + " + value + ");";
+            case Opcode.SUB:    return "r.setA(r.getA() - " + value + ");";
+            case Opcode.MUL:    return "r.setA(r.getA() * " + value + ");";
+            case Opcode.AND:    return "r.setA(r.getA() & " + value + ");";
+            case Opcode.OR:     return "r.setA(r.getA() | " + value + ");";
+            case Opcode.COMP:   return "r.setSWAfterCompare(r.getAs() - SICXE.swordToInt(" + value + "));";
+            // the operand is read with X before the increment, as in the interpreter
+            case Opcode.TIX:    return "{ int v = SICXE.swordToInt(" + value + "); r.setX(r.getX() + 1); r.setSWAfterCompare(r.getXs() - v); }";
+        }
+        return null;
+    }
+
+    private static boolean isStore(Instruction instr) {
+        if (instr.format != 3) return false;
+        switch (instr.op()) {
+            case Opcode.STA: case Opcode.STX: case Opcode.STL: case Opcode.STB:
+            case Opcode.STS: case Opcode.STT: case Opcode.STCH:
+                return true;
+        }
+        return false;
+    }
+
+    private void writeBlock(Writer w, int start) throws IOException {
+        w.write("    private static boolean " + blockName(start) + "(Machine m, Registers r, Memory mem, int writes) throws DataBreakpointException {\n");
+        int address = start;
+        int count = 0;      // translated instructions not yet added to the instruction count
+        while (true) {
+            Instruction instr = instructions.get(address);
+            if (instr == null || (address != start && leaders.contains(address))) {
+                // continue with the next block or with the interpreter
+                flushCount(w, count);
+                w.write("        r.setPC(" + hex(address) + ");\n");
+                w.write("        return false;\n");
+                break;
+            }
+            String code = translateInstruction(instr);
+            if (instr.isJump() && instr.target() >= 0 && !instr.flags.isIndirect() && instr.op() != Opcode.JSUB) {
+                count++;
+                flushCount(w, count);
+                int target = instr.target();
+                String cond = instr.op() == Opcode.JEQ ? "r.isEqual()" : instr.op() == Opcode.JGT ? "r.isGreater()"
+                        : instr.op() == Opcode.JLT ? "r.isLower()" : null;
+                if (cond == null) {
+                    w.write("        r.setPC(" + hex(target) + ");\n");
+                    w.write("        return " + (target == address) + ";\n");
+                } else {
+                    w.write("        if (" + cond + ") {\n");
+                    w.write("            r.setPC(" + hex(target) + ");\n");
+                    w.write("            return " + (target == address) + ";\n");
+                    w.write("        }\n");
+                    w.write("        r.setPC(" + hex(instr.next()) + ");\n");
+                    w.write("        return false;\n");
+                }
+                break;
+            }
+            if (code == null || instr.isJump()) {
+                // leave the instruction to the interpreter
+                flushCount(w, count);
+                count = 0;
+                w.write("        r.setPC(" + hex(address) + ");\n");
+                w.write("        m.execute();\n");
+                if (instr.isJump()) {
+                    w.write("        return m.getLastExecAddr().getStartAddress() == r.getPC();\n");
+                    break;
+                }
+                writeCodeCheck(w, 0, instr.next());
+            } else {
+                count++;
+                w.write("        " + code + "\n");
+                if (isStore(instr)) {
+                    writeCodeCheck(w, count, instr.next());
+                }
+            }
+            address = instr.next();
+        }
+        w.write("    }\n\n");
+    }
+
+    private static void flushCount(Writer w, int count) throws IOException {
+        if (count > 0) w.write("        m.addInstructionCount(" + count + ");\n");
+    }
+
+    // leave the block if the program wrote into translated code
+    private static void writeCodeCheck(Writer w, int count, int next) throws IOException {
+        w.write("        if (mem.getCodeWrites() != writes) {\n");
+        if (count > 0) w.write("            m.addInstructionCount(" + count + ");\n");
+        w.write("            r.setPC(" + hex(next) + ");\n");
+        w.write("            return false;\n");
+        w.write("        }\n");
+    }
+
+    private void writeLoad(Writer w) throws IOException {
+        w.write("    public static void load(Machine m) {\n");
+        for (ObjSection.Text text : section.getTexts()) {
+            w.write("        m.memory.setBytesRaw(" + hex(text.address) + ", Conversion.hexToBytes(\""
+                    + Conversion.bytesToHex(text.data) + "\"));\n");
+        }
+        w.write("        m.registers.setPC(" + hex(section.getEntry()) + ");\n");
+        w.write("    }\n\n");
+    }
+
+    private void writeRun(Writer w) throws IOException {
+        w.write("    public static void run(Machine m) throws DataBreakpointException {\n");
+        w.write("        Registers r = m.registers;\n");
+        w.write("        Memory mem = m.memory;\n");
+        int rangeStart = -1, rangeEnd = -1;
+        for (Instruction instr : instructions.values()) {
+            if (instr.address > rangeEnd) {
+                if (rangeStart >= 0) w.write("        mem.watchCode(" + hex(rangeStart) + ", " + (rangeEnd - rangeStart) + ");\n");
+                rangeStart = instr.address;
+            }
+            rangeEnd = Math.max(rangeEnd, instr.next());
+        }
+        if (rangeStart >= 0) w.write("        mem.watchCode(" + hex(rangeStart) + ", " + (rangeEnd - rangeStart) + ");\n");
+        w.write("        int writes = mem.getCodeWrites();\n");
+        w.write("        boolean halted = false;\n");
+        w.write("        while (!halted && mem.getCodeWrites() == writes) {\n");
+        w.write("            switch (r.getPC()) {\n");
+        for (int leader : leaders) {
+            if (!instructions.containsKey(leader)) continue;
+            w.write("                case " + hex(leader) + ": halted = " + blockName(leader) + "(m, r, mem, writes); break;\n");
+        }
+        w.write("                default:\n");
+        w.write("                    m.execute();\n");
+        w.write("                    halted = m.getLastExecAddr().getStartAddress() == r.getPC();\n");
+        w.write("            }\n");
+        w.write("        }\n");
+        w.write("        // translated code was overwritten: continue in the interpreter\n");
+        w.write("        m.setBlockExecution(true);\n");
+        w.write("        while (!halted) {\n");
+        w.write("            halted = m.run(0, 0, null) == StopReason.HALT;\n");
+        w.write("        }\n");
+        w.write("    }\n\n");
+    }
+
+    /**
+     * Write the Java source of the translated program.
+     */
+    public void translate(Writer w) throws IOException {
+        analyze();
+        w.write("import sic.common.Conversion;\n");
+        w.write("import sic.common.SICXE;\n");
+        w.write("import sic.sim.breakpoints.DataBreakpointException;\n");
+        w.write("import sic.sim.vm.Machine;\n");
+        w.write("import sic.sim.vm.Memory;\n");
+        w.write("import sic.sim.vm.Registers;\n");
+        w.write("import sic.sim.vm.StopReason;\n\n");
+        w.write("/**\n");
+        w.write(" * Program '" + section.getName() + "' translated by sic.Aot.\n");
+        w.write(" */\n");
+        w.write("public class " + className + " {\n\n");
+        writeLoad(w);
+        writeRun(w);
+        for (int leader : leaders)
+            if (instructions.containsKey(leader)) writeBlock(w, leader);
+        w.write("    public static void main(String[] args) throws Exception {\n");
+        w.write("        Machine m = new Machine();\n");
+        w.write("        load(m);\n");
+        w.write("        run(m);\n");
+        w.write("    }\n\n");
+        w.write("}\n");
+    }
+
+    public int getInstructionCount() {
+        return instructions.size();
+    }
+
+    public int getBlockCount() {
+        int count = 0;
+        for (int leader : leaders)
+            if (instructions.containsKey(leader)) count++;
+        return count;
+    }
+
+}
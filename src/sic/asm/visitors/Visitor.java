@@ -2,6 +2,7 @@ package sic.asm.visitors;
 
 import sic.asm.AsmError;
 import sic.asm.ErrorCatcher;
+import sic.asm.Location;
 import sic.ast.*;
 
 import java.lang.reflect.InvocationTargetException;
@@ -53,18 +54,22 @@ public class Visitor {
         try {
             method.invoke(this, node);
         } catch (IllegalAccessException e) {
-            if (e.getCause() instanceof AsmError)
-                throw (AsmError)e.getCause();
-            e.printStackTrace();
-            System.exit(1);
+            throw internalError(node, e);
         } catch (InvocationTargetException e) {
             if (e.getCause() instanceof AsmError)
                 throw (AsmError)e.getCause();
-            e.printStackTrace();
-            System.exit(1);
+            throw internalError(node, e.getCause());
         }
     }
 
+    // a bug of the visitor is reported as an error of the program, the assembler may run inside another application
+    private static AsmError internalError(Node node, Throwable cause) {
+        Location loc = node instanceof Command ? ((Command)node).loc : new Location(0, 1, 1);
+        AsmError err = new AsmError(loc, "Internal assembler error: %s", cause);
+        err.initCause(cause);
+        return err;
+    }
+
     // catch errors: node.enter, this.visit(dynamic), node.leave
     protected void visitNode(Node node) {
         try {
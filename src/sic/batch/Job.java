@@ -0,0 +1,153 @@
+package sic.batch;
+
+import sic.common.SICXE;
+import sic.runtime.Program;
+import sic.runtime.ProgramException;
+import sic.runtime.Run;
+import sic.runtime.SicRuntime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One program to run: an .obj or .asm file, bytes for standard input, limits and memory ranges to dump.
+ *
+ * A job runs on its own machine of a SicRuntime. Standard output and error are collected, other devices read EOF
+ * and ignore writes, so jobs never touch the file system and can run in parallel.
+ */
+public class Job {
+
+    public final int id;
+    public final String filename;
+    public final byte[] input;
+    public final long budget;           // maximal number of instructions, unlimited if not positive
+    public final long nanos;            // maximal running time, unlimited if not positive
+    public final int[] dumps;           // pairs of address and length
+
+    public Job(int id, String filename, byte[] input, long budget, long nanos, int[] dumps) {
+        this.id = id;
+        this.filename = filename;
+        this.input = input;
+        this.budget = budget;
+        this.nanos = nanos;
+        this.dumps = dumps;
+    }
+
+    /**
+     * Parse a manifest line: file [-budget n] [-time ms] [-input "text"] [-stdin file] [-dump address,length]...
+     * Quoted text may contain the escapes \n \t \r \" \\ and \xHH. Relative file names are resolved against dir.
+     * @return null for an empty or comment line
+     * @throws IllegalArgumentException on a malformed line
+     */
+    public static Job parse(int id, String line, File dir, long budget, long nanos) {
+        List<String> tokens = tokenize(line);
+        if (tokens.isEmpty()) return null;
+        String filename = resolve(dir, tokens.get(0));
+        byte[] input = new byte[0];
+        List<Integer> dumps = new ArrayList<>();
+        for (int i = 1; i < tokens.size(); i++) {
+            String option = tokens.get(i);
+            if (i + 1 >= tokens.size()) throw new IllegalArgumentException("Missing value of '" + option + "'");
+            String value = tokens.get(++i);
+            switch (option) {
+                case "-budget":
+                    budget = Long.parseLong(value);
+                    break;
+                case "-time":
+                    nanos = Long.parseLong(value) * 1000000;
+                    break;
+                case "-input":
+                    input = value.getBytes(StandardCharsets.ISO_8859_1);
+                    break;
+                case "-stdin":
+                    File file = new File(resolve(dir, value));
+                    try {
+                        input = Files.readAllBytes(file.toPath());
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Cannot read '" + file + "'");
+                    }
+                    break;
+                case "-dump":
+                    String[] range = value.split(",");
+                    if (range.length != 2) throw new IllegalArgumentException("Invalid range '" + value + "'");
+                    dumps.add(Integer.decode(range[0]));
+                    dumps.add(Integer.decode(range[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option '" + option + "'");
+            }
+        }
+        return new Job(id, filename, input, budget, nanos, dumps.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static String resolve(File dir, String filename) {
+        File file = new File(filename);
+        return file.isAbsolute() || dir == null ? filename : new File(dir, filename).getPath();
+    }
+
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                break;
+            } else if (c == '"') {
+                StringBuilder b = new StringBuilder();
+                for (i++; ; i++) {
+                    if (i >= line.length()) throw new IllegalArgumentException("Unterminated string");
+                    c = line.charAt(i);
+                    if (c == '"') break;
+                    if (c == '\\' && i + 1 < line.length()) {
+                        c = line.charAt(++i);
+                        switch (c) {
+                            case 'n': c = '\n'; break;
+                            case 't': c = '\t'; break;
+                            case 'r': c = '\r'; break;
+                            case 'x':
+                                if (i + 2 >= line.length()) throw new IllegalArgumentException("Invalid escape");
+                                c = (char)Integer.parseInt(line.substring(i + 1, i + 3), 16);
+                                i += 2;
+                                break;
+                        }
+                    }
+                    b.append(c);
+                }
+                tokens.add(b.toString());
+                i++;
+            } else {
+                int start = i;
+                while (i < line.length() && !Character.isWhitespace(line.charAt(i))) i++;
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Load and run the program on a machine of the runtime.
+     * Assembler errors and messages of the simulator, e.g. invalid addresses, go into the result.
+     */
+    public Result run(SicRuntime runtime) {
+        Program program;
+        try {
+            program = Program.fromFile(filename);
+        } catch (ProgramException e) {
+            return new Result(this, e.getErrors());
+        }
+        Run run = new Run(program);
+        run.setInput(SICXE.DEVICE_STDIN, input);
+        run.setBudget(budget);
+        run.setTimeLimit(nanos / 1000000);
+        for (int i = 0; i < dumps.length; i += 2)
+            run.addDump(dumps[i], dumps[i + 1]);
+        return new Result(this, runtime.run(run));
+    }
+
+}
@@ -0,0 +1,118 @@
+package sic.batch;
+
+import sic.common.SICXE;
+import sic.runtime.Outcome;
+import sic.sim.vm.Registers;
+import sic.sim.vm.StopReason;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a job: why it stopped, final registers, collected output and the requested memory dumps.
+ * Holds no reference to the machine, so the machine can be reused as soon as the result is taken.
+ */
+public class Result {
+
+    public final Job job;
+    public final StopReason reason;     // null if the program could not be loaded
+    public final long instructions;
+    public final long nanos;
+    public final int a, x, l, b, s, t, sw, pc;
+    public final double f;
+    public final byte[] stdout;
+    public final byte[] stderr;
+    public final byte[][] dumps;
+    public final List<String> messages; // of the assembler or the simulator, e.g. invalid addresses
+
+    Result(Job job, Outcome outcome) {
+        this.job = job;
+        this.reason = outcome.getReason();
+        this.instructions = outcome.getInstructions();
+        this.nanos = outcome.getNanos();
+        Registers r = outcome.getRegisters();
+        a = r.getA(); x = r.getX(); l = r.getL(); b = r.getB();
+        s = r.getS(); t = r.getT(); sw = r.getSW(); pc = r.getPC();
+        f = r.getF();
+        this.stdout = outcome.getOutput(SICXE.DEVICE_STDOUT);
+        this.stderr = outcome.getOutput(SICXE.DEVICE_STDERR);
+        this.dumps = new byte[job.dumps.length / 2][];
+        for (int i = 0; i < dumps.length; i++)
+            dumps[i] = outcome.getDump(i);
+        this.messages = outcome.getMessages();
+    }
+
+    // the program could not be loaded
+    Result(Job job, List<String> errors) {
+        this.job = job;
+        this.reason = null;
+        this.instructions = 0;
+        this.nanos = 0;
+        a = x = l = b = s = t = sw = pc = 0;
+        f = 0;
+        this.stdout = new byte[0];
+        this.stderr = new byte[0];
+        this.dumps = new byte[0][];
+        this.messages = Collections.unmodifiableList(errors);
+    }
+
+    public String getStatus() {
+        return reason == null ? "LOAD_ERROR" : reason.name();
+    }
+
+    /**
+     * The result as a single line of JSON.
+     */
+    public String toJson() {
+        StringBuilder j = new StringBuilder();
+        j.append("{\"id\":").append(job.id);
+        j.append(",\"file\":");
+        string(j, job.filename);
+        j.append(",\"status\":\"").append(getStatus()).append('"');
+        j.append(",\"instructions\":").append(instructions);
+        j.append(",\"nanos\":").append(nanos);
+        j.append(",\"registers\":{");
+        j.append(String.format("\"A\":\"%06X\",\"X\":\"%06X\",\"L\":\"%06X\",\"B\":\"%06X\",", a, x, l, b));
+        j.append(String.format("\"S\":\"%06X\",\"T\":\"%06X\",\"SW\":\"%06X\",\"PC\":\"%06X\",", s, t, sw, pc));
+        j.append(String.format("\"F\":\"%012X\"}", SICXE.floatToBits(f) & 0xFFFFFFFFFFFFL));
+        j.append(",\"stdout\":");
+        string(j, new String(stdout, StandardCharsets.ISO_8859_1));
+        j.append(",\"stderr\":");
+        string(j, new String(stderr, StandardCharsets.ISO_8859_1));
+        j.append(",\"messages\":[");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) j.append(',');
+            string(j, messages.get(i));
+        }
+        j.append(']');
+        j.append(",\"dumps\":[");
+        for (int i = 0; i < dumps.length; i++) {
+            if (i > 0) j.append(',');
+            j.append(String.format("{\"address\":\"%06X\",\"bytes\":\"", job.dumps[2 * i]));
+            for (byte v : dumps[i]) j.append(String.format("%02x", v & 0xFF));
+            j.append("\"}");
+        }
+        j.append("]}");
+        return j.toString();
+    }
+
+    private static void string(StringBuilder j, String s) {
+        j.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': j.append("\\\""); break;
+                case '\\': j.append("\\\\"); break;
+                case '\n': j.append("\\n"); break;
+                case '\r': j.append("\\r"); break;
+                case '\t': j.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7E) j.append(String.format("\\u%04x", (int)c));
+                    else j.append(c);
+            }
+        }
+        j.append('"');
+    }
+
+}
@@ -28,6 +28,14 @@ public class GUI {
         return null;
     }
 
+    public static File saveFileDialog(JFrame frame, FileFilter filter) {
+        fc.resetChoosableFileFilters();
+        fc.setFileFilter(filter);
+        if (fc.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION)
+            return fc.getSelectedFile();
+        return null;
+    }
+
     public static JFrame showInJFrame(String title, Container container, int x, int y) {
         JFrame frame = new JFrame(title);
         frame.setContentPane(container);
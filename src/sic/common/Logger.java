@@ -1,12 +1,29 @@
 package sic.common;
 
+import java.util.function.Consumer;
+
 /**
  * @author: jure
  */
 public class Logger {
 
+    // messages of the current thread go here instead of the console, see capture
+    private static final ThreadLocal<Consumer<String>> handler = new ThreadLocal<>();
+
+    /**
+     * Send the messages logged by the current thread to the given handler, or to the console if null.
+     * @return the previous handler
+     */
+    public static Consumer<String> capture(Consumer<String> handler) {
+        Consumer<String> old = Logger.handler.get();
+        Logger.handler.set(handler);
+        return old;
+    }
+
     public static void log(String msg) {
-        System.out.println(msg);
+        Consumer<String> h = handler.get();
+        if (h != null) h.accept(msg);
+        else System.out.println(msg);
     }
 
     public static void fmtlog(String fmt, Object... params) {
@@ -16,7 +33,9 @@ public class Logger {
     public static void err(String msg) {
         final StackTraceElement[] ste = Thread.currentThread().getStackTrace();
         String method = ste[ste.length - 1].getMethodName();
-        System.err.println(method + ": " + msg);
+        Consumer<String> h = handler.get();
+        if (h != null) h.accept(method + ": " + msg);
+        else System.err.println(method + ": " + msg);
     }
 
     public static void fmterr(String fmt, Object... params) {
@@ -183,6 +183,8 @@ public class Mnemonics {
         put34("TD",	   Opcode.TD, "testdev(m)", "Test device");
         // System
         put34("SSK",   Opcode.SSK, "m<-(A)\t", "Protection key for address");
+        // Multiprocessor
+        put34("CAS",   Opcode.CAS, "m..m+2<-(S) if =(A)", "Atomic compare and swap, else A<-(m..m+2)");
     }
 
 }
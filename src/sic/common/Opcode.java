@@ -9,7 +9,7 @@ public class Opcode {
     // ************ Instructions ****************
 
     // Not-used opcodes
-    // 0x8C, 0xBC, 0xCC, 0xE4, 0xFC
+    // 0x8C, 0xBC, 0xCC, 0xFC
 
     // ***** SIC format, SIC/XE format 3, and SIC/XE format 4 *****
 
@@ -69,6 +69,8 @@ public class Opcode {
     public static final int TD = 0xE0;
     // system
     public static final int SSK = 0xEC;
+    // multiprocessor extension, see sic.sim.vm.Smp
+    public static final int CAS = 0xE4;
 
     // ***** SIC/XE Format 1 *****
 
@@ -101,7 +103,7 @@ public class Opcode {
         "STF", "STT", "COMPF", null, "ADDR", "SUBR", "MULR", "DIVR",
         "COMPR", "SHIFTL", "SHIFTR", "RMO", "SVC", "CLEAR", "TIXR", null,
         "FLOAT", "FIX", "NORM", null, "LPS", "STI", "RD", "WD",
-        "TD", null, "STSW", "SSK", "SIO", "HIO", "TIO", null
+        "TD", "CAS", "STSW", "SSK", "SIO", "HIO", "TIO", null
     };
 
     public static String getName(int opcode) {
@@ -41,6 +41,15 @@ public class Writer {
         if (options.isVerbose())
             System.out.println("writing the result to " + options.getOutputPath());
 
+        write(writer);
+        writer.close();
+        return new File(options.getOutputPath());
+    }
+
+    /*
+     * writes the section in .obj format to the given writer, e.g. to keep it in memory
+     */
+    public void write(PrintWriter writer) {
         if (section.getName().length() > 6)
             section.setName(section.getName().substring(0,6));
 
@@ -112,8 +121,6 @@ public class Writer {
         }
 
         writer.flush();
-        writer.close();
-        return new File(options.getOutputPath());
     }
 
     public Section getSection() {
@@ -37,48 +37,66 @@ public class Loader {
     }
 
     public static void loadRawCode(Machine machine, int address, byte[] code) {
-        System.arraycopy(code, 0, machine.memory.memory, address, code.length);
+        machine.memory.setBytesRaw(address, code);
         machine.registers.setPC(address);
     }
 
-    public static boolean loadSection(Machine machine, Reader r) {
-        try {
-            // header record
-            if (r.read() != 'H') return false;
-            readString(r, 6);	// name is ignored
-            int start = readWord(r);
-            int length = readWord(r);
+    /**
+     * Parse one section of an object file: header, text, modification and end records.
+     * @return parsed section or null if the section is malformed
+     */
+    public static ObjSection readSection(Reader r) throws IOException {
+        // header record
+        if (r.read() != 'H') return null;
+        String name = readString(r, 6);
+        int start = readWord(r);
+        int length = readWord(r);
+        if (r.read() == '\r') // EOL
+            r.read();
+
+        ObjSection section = new ObjSection(name.trim(), start, length);
+        // text records
+        int ch = r.read();
+        while (ch == 'T') {
+            int loc = readWord(r);
+            int len = readByte(r);
+            if (loc < start || loc + len > start + length) return null;
+            byte[] data = new byte[len];
+            for (int i = 0; i < len; i++)
+                data[i] = (byte)readByte(r);
+            section.addText(loc, data);
+            if (r.read() == '\r') // EOL
+                r.read();
+            ch = r.read();
+        }
+
+        // modification records
+        while (ch == 'M') {
+            readWord(r);	// addr
+            readByte(r);	// len
             if (r.read() == '\r') // EOL
                 r.read();
+            ch = r.read();
+        }
+
+        // load end record
+        if (ch != 'E') return null;
+        section.setEntry(readWord(r));
+        return section;
+    }
 
-            Memory mem = machine.memory;
-            // text records
-            int ch = r.read();
-            while (ch == 'T') {
-                int loc = readWord(r);
-                int len = readByte(r);
-                while (len-- > 0) {
-                    if (loc < start || loc >= start + length) return false;
-                    byte val = (byte)readByte(r);
-                    mem.setByteRaw(loc++, val);
-                }
-                if (r.read() == '\r') // EOL
-                    r.read();
-                ch = r.read();
-            }
-
-            // modification records
-            while (ch == 'M') {
-                readWord(r);	// addr
-                readByte(r);	// len
-                if (r.read() == '\r') // EOL
-                    r.read();
-                ch = r.read();
-            }
-
-            // load end record
-            if (ch != 'E') return false;
-            machine.registers.setPC(readWord(r));
+    public static void loadSection(Machine machine, ObjSection section) {
+        Memory mem = machine.memory;
+        for (ObjSection.Text text : section.getTexts())
+            mem.setBytesRaw(text.address, text.data);
+        machine.registers.setPC(section.getEntry());
+    }
+
+    public static boolean loadSection(Machine machine, Reader r) {
+        try {
+            ObjSection section = readSection(r);
+            if (section == null) return false;
+            loadSection(machine, section);
         } catch (IOException e) {
             return false;
         }
@@ -86,29 +104,34 @@ public class Loader {
     }
 
     public static boolean loadObj(Machine machine, String filename) {
-        try {
-            Reader reader = new FileReader(filename);
-            Loader.loadSection(machine, reader);
-        } catch (FileNotFoundException e1) {
+        try (Reader reader = new FileReader(filename)) {
+            return Loader.loadSection(machine, reader);
+        } catch (IOException e1) {
             Logger.fmterr("Error reading file '%s'.", filename);
             return false;
         }
-        return true;
     }
 
-    static public void loadAsm(Machine machine, String filename) {
+    static public boolean loadAsm(Machine machine, String filename) {
+        return loadAsmSource(machine, Utils.readFile(filename));
+    }
+
+    /**
+     * Assemble the given source and load it, assembler errors are printed.
+     */
+    static public boolean loadAsmSource(Machine machine, String source) {
         Assembler assembler = new Assembler();
         ErrorCatcher errorCatcher = assembler.errorCatcher;
-        Program program = assembler.assemble(Utils.readFile(filename));
+        Program program = assembler.assemble(source);
         if (errorCatcher.count() > 0) {
             errorCatcher.print();
-            return;
+            return false;
         }
         //
         Writer writer = new StringWriter();
         assembler.generateObj(program, writer, false);
         Reader reader = new StringReader(writer.toString());
-        Loader.loadSection(machine, reader);
+        return Loader.loadSection(machine, reader);
     }
 
 }
@@ -0,0 +1,65 @@
+package sic.loader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One section of an object file as read by the loader.
+ */
+public class ObjSection {
+
+    /**
+     * Contents of a text record.
+     */
+    public static class Text {
+        public final int address;
+        public final byte[] data;
+
+        public Text(int address, byte[] data) {
+            this.address = address;
+            this.data = data;
+        }
+    }
+
+    private final String name;
+    private final int start;
+    private final int length;
+    private int entry;
+    private final List<Text> texts = new ArrayList<>();
+
+    public ObjSection(String name, int start, int length) {
+        this.name = name;
+        this.start = start;
+        this.length = length;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getEntry() {
+        return entry;
+    }
+
+    public void setEntry(int entry) {
+        this.entry = entry;
+    }
+
+    public List<Text> getTexts() {
+        return Collections.unmodifiableList(texts);
+    }
+
+    public void addText(int address, byte[] data) {
+        texts.add(new Text(address, data));
+    }
+
+}
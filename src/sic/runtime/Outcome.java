@@ -0,0 +1,91 @@
+package sic.runtime;
+
+import sic.sim.vm.Registers;
+import sic.sim.vm.StopReason;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a run: why it stopped, final registers, device output, memory dumps and statistics.
+ */
+public class Outcome {
+
+    private final StopReason reason;
+    private final Registers registers;
+    private final long instructions;
+    private final long nanos;
+    private final Map<Integer, byte[]> outputs;
+    private final List<byte[]> dumps;
+    private final List<String> messages;
+
+    Outcome(StopReason reason, Registers registers, long instructions, long nanos,
+            Map<Integer, byte[]> outputs, List<byte[]> dumps, List<String> messages) {
+        this.reason = reason;
+        this.registers = registers;
+        this.instructions = instructions;
+        this.nanos = nanos;
+        this.outputs = outputs;
+        this.dumps = dumps;
+        this.messages = Collections.unmodifiableList(messages);
+    }
+
+    public StopReason getReason() {
+        return reason;
+    }
+
+    public boolean isHalted() {
+        return reason == StopReason.HALT;
+    }
+
+    /**
+     * Registers after the run, a copy owned by the caller.
+     */
+    public Registers getRegisters() {
+        return registers;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Instructions per second of simulated time.
+     */
+    public double getSpeed() {
+        return nanos > 0 ? instructions * 1e9 / nanos : 0;
+    }
+
+    /**
+     * Bytes written to the given device, empty if it was not kept in memory, see Run.
+     */
+    public byte[] getOutput(int device) {
+        byte[] output = outputs.get(device);
+        return output == null ? new byte[0] : output.clone();
+    }
+
+    public String getOutputString(int device) {
+        return new String(getOutput(device), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Contents of the i-th range added with Run.addDump.
+     */
+    public byte[] getDump(int i) {
+        return dumps.get(i).clone();
+    }
+
+    /**
+     * Errors reported by the simulator during the run, e.g. invalid addresses.
+     */
+    public List<String> getMessages() {
+        return messages;
+    }
+
+}
@@ -0,0 +1,89 @@
+package sic.runtime;
+
+import sic.asm.AsmError;
+import sic.asm.Assembler;
+import sic.common.Utils;
+import sic.loader.Loader;
+import sic.loader.ObjSection;
+import sic.sim.vm.Machine;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An assembled program ready to be loaded into machines, any number of times and from any thread.
+ */
+public class Program {
+
+    private final ObjSection section;
+
+    private Program(ObjSection section) {
+        this.section = section;
+    }
+
+    /**
+     * Assemble the given source.
+     * @throws ProgramException with the assembler errors
+     */
+    public static Program assemble(String source) throws ProgramException {
+        Assembler assembler = new Assembler();
+        sic.ast.Program program = assembler.assemble(source);
+        if (assembler.errorCatcher.count() > 0) {
+            List<String> errors = new ArrayList<>();
+            for (AsmError error : assembler.errorCatcher.errs) errors.add(error.toString());
+            throw new ProgramException(errors);
+        }
+        StringWriter writer = new StringWriter();
+        assembler.generateObj(program, writer, false);
+        return fromObj(writer.toString());
+    }
+
+    /**
+     * Read a program from the text of an object file.
+     */
+    public static Program fromObj(String obj) throws ProgramException {
+        ObjSection section;
+        try {
+            section = Loader.readSection(new StringReader(obj));
+        } catch (IOException e) {
+            section = null;
+        }
+        if (section == null) throw new ProgramException("Invalid object file.");
+        return new Program(section);
+    }
+
+    /**
+     * Assemble an .asm file or read an .obj file.
+     */
+    public static Program fromFile(String filename) throws ProgramException {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            throw new ProgramException("Error reading file '" + filename + "'.");
+        }
+        String ext = Utils.getFileExtension(filename);
+        if ("asm".equals(ext)) return assemble(text);
+        if ("obj".equals(ext)) return fromObj(text);
+        throw new ProgramException("Invalid filename extension '" + ext + "'.");
+    }
+
+    public String getName() {
+        return section.getName();
+    }
+
+    public int getEntry() {
+        return section.getEntry();
+    }
+
+    void load(Machine machine) {
+        Loader.loadSection(machine, section);
+    }
+
+}
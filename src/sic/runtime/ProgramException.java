@@ -0,0 +1,31 @@
+package sic.runtime;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A program could not be assembled or loaded.
+ */
+public class ProgramException extends Exception {
+
+    private static final long serialVersionUID = 804604699346255734L;
+
+    private final List<String> errors;
+
+    public ProgramException(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public ProgramException(String error) {
+        this(Collections.singletonList(error));
+    }
+
+    /**
+     * Messages of all errors, e.g. one per assembler error.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+}
@@ -0,0 +1,96 @@
+package sic.runtime;
+
+import sic.common.SICXE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What to run: a program, the input of its devices, limits and memory ranges to read back afterwards.
+ *
+ * Standard input, output and error (devices 0, 1 and 2) and every device given input or added with addDevice
+ * are kept in memory and their output is returned in the outcome. Other devices read EOF and ignore writes.
+ */
+public class Run {
+
+    private final Program program;
+    private final Map<Integer, byte[]> devices = new TreeMap<>();
+    private long budget;
+    private long nanos;
+    private final List<int[]> dumps = new ArrayList<>();
+
+    public Run(Program program) {
+        this.program = program;
+        addDevice(SICXE.DEVICE_STDIN);
+        addDevice(SICXE.DEVICE_STDOUT);
+        addDevice(SICXE.DEVICE_STDERR);
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Bytes the program reads from the given device; afterwards it reads EOF.
+     */
+    public void setInput(int device, byte[] input) {
+        checkDevice(device);
+        devices.put(device, input.clone());
+    }
+
+    /**
+     * Keep the device in memory and collect its output, without input.
+     */
+    public void addDevice(int device) {
+        checkDevice(device);
+        devices.putIfAbsent(device, new byte[0]);
+    }
+
+    private static void checkDevice(int device) {
+        if (device < 0 || device > SICXE.MAX_DEVICE) throw new IllegalArgumentException("Invalid device number " + device);
+    }
+
+    Map<Integer, byte[]> getDevices() {
+        return devices;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param budget maximal number of instructions, unlimited if not positive
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public long getTimeLimit() {
+        return nanos / 1000000;
+    }
+
+    /**
+     * @param millis maximal running time, unlimited if not positive
+     */
+    public void setTimeLimit(long millis) {
+        this.nanos = millis * 1000000;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Read the given memory range after the run, see Outcome.getDump.
+     */
+    public void addDump(int address, int length) {
+        dumps.add(new int[] {address, length});
+    }
+
+    List<int[]> getDumps() {
+        return dumps;
+    }
+
+}
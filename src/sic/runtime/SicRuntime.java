@@ -0,0 +1,87 @@
+package sic.runtime;
+
+import sic.common.Logger;
+import sic.sim.vm.ByteArrayDevice;
+import sic.sim.vm.Device;
+import sic.sim.vm.Machine;
+import sic.sim.vm.MachinePool;
+import sic.sim.vm.StopReason;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Headless Sic/XE runtime for embedding the simulator in other programs.
+ *
+ * <pre>
+ *     SicRuntime runtime = new SicRuntime();
+ *     Run run = new Run(Program.assemble(source));
+ *     run.setInput(0, "42\n".getBytes());
+ *     run.setBudget(1000000);
+ *     Outcome outcome = runtime.run(run);
+ *     String printed = outcome.getOutputString(1);
+ * </pre>
+ *
+ * Runs never touch the console, files or the GUI; messages the simulator would print are returned in the outcome.
+ * A runtime may be shared by many threads, each run takes its own machine from a pool.
+ */
+public class SicRuntime {
+
+    private static final Device NO_DEVICE = new Device();
+
+    private final MachinePool pool;
+
+    public SicRuntime() {
+        this(new MachinePool(false, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public SicRuntime(MachinePool pool) {
+        this.pool = pool;
+    }
+
+    public MachinePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Load the program into a fresh machine and run it until it halts, fails or uses up its limits.
+     */
+    public Outcome run(Run run) {
+        List<String> messages = new ArrayList<>();
+        Consumer<String> old = Logger.capture(messages::add);
+        Machine machine = pool.acquire();
+        try {
+            Map<Integer, ByteArrayDevice> devices = new HashMap<>();
+            for (int i = 0; i < machine.devices.count(); i++)
+                machine.devices.setDevice(i, NO_DEVICE);
+            for (Map.Entry<Integer, byte[]> e : run.getDevices().entrySet()) {
+                ByteArrayDevice device = new ByteArrayDevice(e.getValue());
+                devices.put(e.getKey(), device);
+                machine.devices.setDevice(e.getKey(), device);
+            }
+            run.getProgram().load(machine);
+
+            machine.setLean(true);
+            machine.setBlockExecution(true);
+            long start = System.nanoTime();
+            StopReason reason = machine.run(run.getBudget(), run.getNanos(), null);
+            long nanos = System.nanoTime() - start;
+
+            Map<Integer, byte[]> outputs = new HashMap<>();
+            for (Map.Entry<Integer, ByteArrayDevice> e : devices.entrySet())
+                outputs.put(e.getKey(), e.getValue().getOutput());
+            List<byte[]> dumps = new ArrayList<>();
+            for (int[] range : run.getDumps())
+                dumps.add(machine.memory.getBytesRaw(range[0], range[1]));
+            return new Outcome(reason, machine.registers.copy(), machine.getInstructionCount(), nanos,
+                    outputs, dumps, messages);
+        } finally {
+            pool.release(machine);
+            Logger.capture(old);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package sic.server;
+
+import sic.asm.AsmError;
+import sic.asm.Assembler;
+import sic.asm.Options;
+import sic.ast.Program;
+import sic.common.SICXE;
+import sic.link.Linker;
+import sic.link.LinkerError;
+import sic.link.utils.Writer;
+import sic.runtime.Outcome;
+import sic.runtime.ProgramException;
+import sic.runtime.Run;
+import sic.runtime.SicRuntime;
+import sic.sim.vm.Registers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves one request of the job server; safe to call from many threads.
+ *
+ * Every request has an "op" field and may have an "id" field, which is copied into the response.
+ * A response has "status" "ok" or "error" and for an error one or more "error" fields.
+ * <ul>
+ *     <li>assemble: "source"; responds with "obj", "lst" and "log"</li>
+ *     <li>link: "obj" for each input, optional "name", "main", "keep" and "force"; responds with "obj"</li>
+ *     <li>run: "source" or "obj", optional "stdin", "budget", "time" (ms) and "dump" (address,length) fields;
+ *     responds with "reason", "instructions", "nanos", registers "A" ... "PC" and "F" in hex,
+ *     "stdout", "stderr", a "dump" field per requested range and a "message" field per simulator error</li>
+ * </ul>
+ */
+public class Handler {
+
+    private final SicRuntime runtime;
+
+    public Handler(SicRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    public Message handle(Message request) {
+        Message response = new Message();
+        String id = request.get("id");
+        if (id != null) response.add("id", id);
+        String op = request.get("op");
+        try {
+            if ("assemble".equals(op)) assemble(request, response);
+            else if ("link".equals(op)) link(request, response);
+            else if ("run".equals(op)) run(request, response);
+            else return error(response, "Unknown operation '" + op + "'.");
+        } catch (ProgramException e) {
+            for (String error : e.getErrors()) response.add("error", error);
+            return response.add("status", "error");
+        } catch (LinkerError e) {
+            return error(response, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return error(response, "Invalid request: " + e.getMessage());
+        }
+        return response.add("status", "ok");
+    }
+
+    private static Message error(Message response, String error) {
+        return response.add("error", error).add("status", "error");
+    }
+
+    private static String require(Message request, String name) {
+        String value = request.get(name);
+        if (value == null) throw new IllegalArgumentException("missing field '" + name + "'");
+        return value;
+    }
+
+    private void assemble(Message request, Message response) throws ProgramException {
+        Assembler assembler = new Assembler();
+        Program program = assembler.assemble(require(request, "source"));
+        if (assembler.errorCatcher.count() > 0) {
+            List<String> errors = new ArrayList<>();
+            for (AsmError error : assembler.errorCatcher.errs) errors.add(error.toString());
+            throw new ProgramException(errors);
+        }
+        StringWriter obj = new StringWriter(), lst = new StringWriter(), log = new StringWriter();
+        assembler.generateObj(program, obj, Options.addSpaceInObj);
+        assembler.generateListing(program, lst);
+        assembler.generateLog(program, log);
+        response.add("obj", obj.toString()).add("lst", lst.toString()).add("log", log.toString());
+    }
+
+    private void link(Message request, Message response) throws LinkerError {
+        List<String> objs = request.getAll("obj");
+        if (objs.isEmpty()) throw new IllegalArgumentException("missing field 'obj'");
+        sic.link.Options options = new sic.link.Options();
+        options.setOutputName(request.get("name"));
+        options.setMain(request.get("main"));
+        options.setKeep(request.getLong("keep", 0) != 0);
+        options.setForce(request.getLong("force", 0) != 0);
+        // the linker reads its inputs from files
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("sic-link");
+            List<String> inputs = new ArrayList<>();
+            for (int i = 0; i < objs.size(); i++) {
+                Path input = dir.resolve(i + ".obj");
+                Files.write(input, objs.get(i).getBytes(StandardCharsets.UTF_8));
+                inputs.add(input.toString());
+            }
+            StringWriter obj = new StringWriter();
+            new Writer(new Linker(inputs, options).link(), options).write(new PrintWriter(obj));
+            response.add("obj", obj.toString());
+        } catch (IOException e) {
+            throw new LinkerError("server", "Cannot write temporary files.");
+        } finally {
+            if (dir != null) {
+                File[] files = dir.toFile().listFiles();
+                if (files != null) for (File file : files) file.delete();
+                dir.toFile().delete();
+            }
+        }
+    }
+
+    private void run(Message request, Message response) throws ProgramException {
+        String source = request.get("source");
+        sic.runtime.Program program = source != null ? sic.runtime.Program.assemble(source)
+                : sic.runtime.Program.fromObj(require(request, "obj"));
+        Run run = new Run(program);
+        byte[] stdin = request.getBytes("stdin");
+        if (stdin != null) run.setInput(SICXE.DEVICE_STDIN, stdin);
+        run.setBudget(request.getLong("budget", 0));
+        run.setTimeLimit(request.getLong("time", 0));
+        List<String> dumps = request.getAll("dump");
+        for (String dump : dumps) {
+            String[] range = dump.split(",");
+            if (range.length != 2) throw new IllegalArgumentException("invalid range '" + dump + "'");
+            run.addDump(Integer.decode(range[0].trim()), Integer.decode(range[1].trim()));
+        }
+
+        Outcome outcome = runtime.run(run);
+        response.add("reason", outcome.getReason().name());
+        response.add("instructions", outcome.getInstructions());
+        response.add("nanos", outcome.getNanos());
+        Registers r = outcome.getRegisters();
+        response.add("A", String.format("%06X", r.getA())).add("X", String.format("%06X", r.getX()));
+        response.add("L", String.format("%06X", r.getL())).add("B", String.format("%06X", r.getB()));
+        response.add("S", String.format("%06X", r.getS())).add("T", String.format("%06X", r.getT()));
+        response.add("SW", String.format("%06X", r.getSW())).add("PC", String.format("%06X", r.getPC()));
+        response.add("F", String.format("%012X", SICXE.floatToBits(r.getF()) & 0xFFFFFFFFFFFFL));
+        response.add("stdout", outcome.getOutput(SICXE.DEVICE_STDOUT));
+        response.add("stderr", outcome.getOutput(SICXE.DEVICE_STDERR));
+        for (int i = 0; i < dumps.size(); i++) response.add("dump", outcome.getDump(i));
+        for (String message : outcome.getMessages()) response.add("message", message);
+    }
+
+}
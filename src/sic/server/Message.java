@@ -0,0 +1,106 @@
+package sic.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request or response of the job server: a list of named fields, a name may repeat.
+ *
+ * On the wire a message is its length in bytes followed by the fields, all integers big-endian.
+ * A field is the length of its name (2 bytes), the name in UTF-8, the length of its value (4 bytes) and the value.
+ */
+public class Message {
+
+    // longer messages are refused, so a broken client cannot exhaust the heap
+    public static final int MAX_LENGTH = 64 << 20;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<byte[]> values = new ArrayList<>();
+
+    public Message add(String name, byte[] value) {
+        names.add(name);
+        values.add(value);
+        return this;
+    }
+
+    public Message add(String name, String value) {
+        return add(name, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Message add(String name, long value) {
+        return add(name, Long.toString(value));
+    }
+
+    /**
+     * Value of the first field with the given name, null if there is none.
+     */
+    public byte[] getBytes(String name) {
+        int i = names.indexOf(name);
+        return i < 0 ? null : values.get(i);
+    }
+
+    public String get(String name) {
+        byte[] value = getBytes(name);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String value = get(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Values of all fields with the given name, in order.
+     */
+    public List<String> getAll(String name) {
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++)
+            if (names.get(i).equals(name)) all.add(new String(values.get(i), StandardCharsets.UTF_8));
+        return all;
+    }
+
+    /**
+     * @return null at the end of the stream
+     */
+    public static Message read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_LENGTH) throw new IOException("Invalid message length " + length);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(data));
+        Message message = new Message();
+        while (fields.available() > 0) {
+            byte[] name = new byte[fields.readUnsignedShort()];
+            fields.readFully(name);
+            int size = fields.readInt();
+            if (size < 0 || size > fields.available()) throw new IOException("Invalid field length " + size);
+            byte[] value = new byte[size];
+            fields.readFully(value);
+            message.add(new String(name, StandardCharsets.UTF_8), value);
+        }
+        return message;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(data);
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            fields.writeShort(name.length);
+            fields.write(name);
+            fields.writeInt(values.get(i).length);
+            fields.write(values.get(i));
+        }
+        out.writeInt(data.size());
+        data.writeTo(out);
+        out.flush();
+    }
+
+}
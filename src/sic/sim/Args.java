@@ -1,5 +1,6 @@
 package sic.sim;
 
+import sic.common.Logger;
 import sic.common.Utils;
 
 /**
@@ -43,6 +44,19 @@ public class Args extends  AbstractCmdLineArgs {
     private int debug;
     private boolean start;
     private boolean stats;
+    private boolean blocks;
+    private boolean table;
+    private boolean full;
+    private boolean sparse;
+    private boolean checkpoints;
+    private boolean reverse;
+    private String snapshot;
+    private String trace;
+    private String record;
+    private String replay;
+    private int cores = 1;
+    private int dumpStart = -1;
+    private int dumpLength;
 
     private boolean textScr;
     private int textScrCols;
@@ -92,6 +106,62 @@ public class Args extends  AbstractCmdLineArgs {
         return stats;
     }
 
+    public boolean isBlocks() {
+        return blocks;
+    }
+
+    public boolean isTable() {
+        return table;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    public boolean isCheckpoints() {
+        return checkpoints;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public String getTrace() {
+        return trace;
+    }
+
+    public String getRecord() {
+        return record;
+    }
+
+    public String getReplay() {
+        return replay;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public boolean hasDump() {
+        return dumpStart >= 0;
+    }
+
+    public int getDumpStart() {
+        return dumpStart;
+    }
+
+    public int getDumpLength() {
+        return dumpLength;
+    }
+
     public boolean isTextScr() {
         return textScr;
     }
@@ -135,6 +205,18 @@ public class Args extends  AbstractCmdLineArgs {
           //"    -debug level      Set the debug level.\n" + // Don't display while not implemented (TODO)
             "    -start                Start on load.\n" +
             "    -stats                Print instruction statistics.\n" +
+            "    -blocks               Execute translated basic blocks.\n" +
+            "    -table                Use table-driven instruction dispatch.\n" +
+            "    -full                 Keep the debugger bookkeeping also in headless runs, runs slower.\n" +
+            "    -sparse               Allocate memory pages on first write.\n" +
+            "    -reverse              Record executed instructions to step back over, runs slower.\n" +
+            "    -checkpoints          Take checkpoints for seek also with flat memory, where each copies memory.\n" +
+            "    -snapshot file        Save a snapshot of the machine when it halts.\n" +
+            "    -trace file           Record a binary trace of executed instructions, see sic.Trace.\n" +
+            "    -record file          Record device input and output.\n" +
+            "    -replay file          Replay recorded device input and output instead of using the devices.\n" +
+            "    -cores n              Run on n cores sharing the memory, without the debugger, see sic.sim.vm.Smp.\n" +
+            "    -mstart,length        Write registers and memory range to file dump when the machine halts.\n" +
             "    -text colsxrows       Show and resize textual screen.\n" +
             "    -graph colsxrows[@hz] Show and resize graphical screen.\n" +
             "    -keyb address         Show and set keyboard address.\n");
@@ -144,6 +226,31 @@ public class Args extends  AbstractCmdLineArgs {
         return Integer.parseInt(s);
     }
 
+    int parseCores(String s) {
+        try {
+            int n = Integer.parseInt(s);
+            if (n >= 1) return n;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        Logger.fmterr("Invalid number of cores '%s', must be at least 1.", s);
+        System.exit(1);
+        return 1;
+    }
+
+    void parseDump(String s) {
+        int comma = s.indexOf(',');
+        try {
+            dumpStart = Integer.parseInt(s.substring(0, comma));
+            dumpLength = Integer.parseInt(s.substring(comma + 1));
+            if (dumpStart >= 0 && dumpLength >= 0) return;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            // reported below
+        }
+        Logger.fmterr("Invalid dump range '%s', must be start,length.", s);
+        System.exit(1);
+    }
+
     void parseTextScreen(String s) {
         int x = s.indexOf('x');
         textScrCols = Integer.parseInt(s.substring(0, x));
@@ -192,9 +299,42 @@ public class Args extends  AbstractCmdLineArgs {
                 case "-stats":
                     stats = true;
                     break;
+                case "-blocks":
+                    blocks = true;
+                    break;
+                case "-table":
+                    table = true;
+                    break;
+                case "-full":
+                    full = true;
+                    break;
+                case "-sparse":
+                    sparse = true;
+                    break;
+                case "-reverse":
+                    reverse = true;
+                    break;
+                case "-checkpoints":
+                    checkpoints = true;
+                    break;
                 case "-start":
                     start = true;
                     break;
+                case "-snapshot":
+                    snapshot = args[++last];
+                    break;
+                case "-trace":
+                    trace = args[++last];
+                    break;
+                case "-record":
+                    record = args[++last];
+                    break;
+                case "-replay":
+                    replay = args[++last];
+                    break;
+                case "-cores":
+                    cores = parseCores(args[++last]);
+                    break;
                 case "-freq":
                     freq = parseFreq(args[++last]);
                     break;
@@ -213,6 +353,9 @@ public class Args extends  AbstractCmdLineArgs {
                     keyb = true;
                     parseKeyb(args[++last]);
                     break;
+                default:
+                    if (arg.startsWith("-m")) parseDump(arg.substring(2));
+                    break;
             }
             if (!arg.startsWith("-") || arg.equals("--")) break;
             last++;
@@ -3,11 +3,14 @@ package sic.sim;
 import sic.sim.breakpoints.Breakpoints;
 import sic.sim.breakpoints.DataBreakpointException;
 import sic.sim.breakpoints.DataBreakpoints;
+import sic.sim.vm.Checkpoint;
+import sic.sim.vm.Checkpoints;
 import sic.sim.vm.Machine;
+import sic.sim.vm.StopReason;
+import sic.sim.vm.UndoLog;
 
 import java.awt.event.ActionListener;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Predicate;
 
 /**
@@ -16,11 +19,22 @@ import java.util.function.Predicate;
 // TODO: rename class
 public class Executor {
     public static final int MaxSpeed = 100000000; // Hz
+    private static final int TurboBatch = 1 << 20; // instructions between checks for stop()
+    public static final int UndoLogSize = 1 << 22; // ints: about a million instructions to step back over
+    public static final int CheckpointInterval = 1 << 20; // instructions, doubles whenever MaxCheckpoints is exceeded
+    private static final int MaxCheckpoints = 64;
+
+    private static final long Second = 1000000000L;     // ns
+    private static final long MaxBatchTime = 1000000L;  // ns: paced batches cover at most 1 ms of machine time
+    private static final long MaxPark = 50000000L;      // ns: longest wait for the next paced batch
+    private static final long MaxLag = 100000000L;      // ns: lag caught up after a pause, e.g. GC, the rest is dropped
+    private static final long StopWait = 100;           // ms: longest wait of stop for the run thread, e.g. blocked in RD
+
+    private static final Predicate<Machine> NeverStop = x -> false;
+    private static final Predicate<Machine> Seeking = x -> false;  // run predicate of a seek, see replay
 
     public final Machine machine;
-    private Timer timer;
-    private int timerPeriod;        // timer period in miliseconds
-    private int timerRepeat;        // timer loop-repeat count
+    private volatile int speed;     // Hz
 
     public final Breakpoints breakpoints;
     private final DataBreakpoints dataBreakpoints;
@@ -28,6 +42,20 @@ public class Executor {
     private boolean hasChanged;
 
     private boolean printStats = false;
+    private long runStarted;                // System.nanoTime at the start of the current run, for the stats
+    private boolean leanExecution = false;
+
+    private boolean turbo = false;
+
+    private Checkpoints checkpoints;        // null if not taken
+
+    // a long-lived thread runs the machine
+    private final Object runLock = new Object();
+    private Thread runThread;
+    private volatile Predicate<Machine> runPredicate;       // stop predicate of the current run, null when stopped
+    private volatile boolean busy;          // the thread is changing the machine, until it acknowledges a stop
+    private boolean breakpointHit;          // the last run stopped at a breakpoint, used by the run thread only
+    private volatile long seekTarget;       // instruction count of the current seek
 
     public Executor(final Machine machine) {
         this.machine = machine;
@@ -41,6 +69,8 @@ public class Executor {
         this(machine);
 
         this.printStats = arg.isStats();
+        machine.setBlockExecution(arg.isBlocks());
+        machine.setTableDispatch(arg.isTable());
         if (arg.getFreq() > 0) setSpeed(arg.getFreq());
     }
 
@@ -49,57 +79,130 @@ public class Executor {
     }
 
     public int getSpeed() {
-        return 1000 / timerPeriod * timerRepeat;
+        return speed;
+    }
+
+    public boolean isBlockExecution() {
+        return machine.isBlockExecution();
+    }
+
+    /**
+     * Execute whole translated basic blocks instead of single instructions
+     * while running without breakpoints or an additional stop condition.
+     */
+    public void setBlockExecution(boolean blockExecution) {
+        machine.setBlockExecution(blockExecution);
+    }
+
+    public boolean isLeanExecution() {
+        return leanExecution;
+    }
+
+    /**
+     * Run the machine in lean mode, without debugger bookkeeping, while no breakpoints are set.
+     * Single steps always run in full mode.
+     */
+    public void setLeanExecution(boolean leanExecution) {
+        this.leanExecution = leanExecution;
+        if (!leanExecution) machine.setLean(false);
+    }
+
+    public boolean isReverseExecution() {
+        return machine.getUndoLog() != null;
+    }
+
+    /**
+     * Record executed instructions so that they can be stepped back over, see stepBack.
+     * @param size size of the undo log in ints, recording is turned off if not positive
+     */
+    public void setReverseExecution(int size) {
+        stop(0);
+        machine.setUndoLog(size > 0 ? new UndoLog(size) : null);
+    }
+
+    public boolean isCheckpointing() {
+        return checkpoints != null;
+    }
+
+    /**
+     * Take checkpoints while running, for seek.
+     * @param interval instructions between checkpoints, none are taken if not positive
+     */
+    public void setCheckpointing(int interval) {
+        stop(0);
+        checkpoints = interval > 0 ? new Checkpoints(interval, MaxCheckpoints) : null;
+    }
+
+    /**
+     * Forget the recorded instructions and checkpoints, e.g. after loading a new program.
+     */
+    public void clearHistory() {
+        UndoLog log = machine.getUndoLog();
+        if (log != null) log.clear();
+        if (checkpoints != null) checkpoints.clear();
+    }
+
+    public boolean isTurbo() {
+        return turbo;
+    }
+
+    /**
+     * Run without frequency pacing, in large batches of instructions.
+     */
+    public void setTurbo(boolean turbo) {
+        stop();
+        this.turbo = turbo;
     }
 
     public void setSpeed(int Hz) {
         if (Hz > MaxSpeed) Hz = MaxSpeed;
-        timerRepeat = (Hz + 99) / 100;
-        timerPeriod = 1000 * timerRepeat / Hz;
+        if (Hz < 1) Hz = 1;
+        speed = Hz;
     }
 
     /**
-     * Execute the timer tick until the stopPredicate / Breakpoint / Halt is reached.
+     * Execute a batch of count instructions until the stopPredicate / Breakpoint / Halt is reached.
      * @param stopPredicate Stop if predicate passes.
      */
-    private void timerTickUntil(Predicate<Machine> stopPredicate) {
-        for (int i = 0; i < timerRepeat; i++) {
-            int oldPC = machine.registers.getPC();
-
-            try {
-                machine.execute();
-
-                if (!dataBreakpoints.isEnabled()) {
-                    // Enable data breakpoints in case they got disabled because they were triggered.
-                    dataBreakpoints.enable();
-                }
-            } catch (DataBreakpointException ex) {
-                machine.registers.setPC(oldPC); // reset PC to old one - instruction didn't execute anyway
-                hasChanged = true;
-                stop();
-                if (onBreakpoint != null) onBreakpoint.actionPerformed(null);
-                break;
+    private void runBatchUntil(Predicate<Machine> stopPredicate, int count) {
+        machine.setLean(leanExecution && breakpoints.isEmpty() && dataBreakpoints.isEmpty() && machine.getTrace() == null);
+        // an additional stop condition is tested after every instruction
+        boolean stepping = stopPredicate != NeverStop;
+        long start = machine.getInstructionCount();
+        long executed = 0;
+        while (executed < count) {
+            long budget = stepping ? 1 : count - executed;
+            if (checkpoints != null) {
+                checkpoints.update(machine);
+                budget = Math.min(budget, checkpoints.remaining(machine));
             }
-
+            StopReason reason = machine.run(budget, 0, breakpoints);
+            executed = machine.getInstructionCount() - start;
             hasChanged = true;
-            // check if the same instruction: halt J halt
-            if (oldPC == machine.registers.getPC()) {
-                stop();
-                if (printStats) {
-                    System.out.printf("Instructions executed: %d\n", machine.getInstructionCount());
-                }
-                break;
-            }
-            // check breakpoints
-            if (breakpoints.has(machine.registers.getPC())) {
-                stop();
-                if (onBreakpoint != null) onBreakpoint.actionPerformed(null);
-                break;
+            switch (reason) {
+                case HALT:
+                    stop();
+                    if (printStats) {
+                        System.out.printf("Instructions executed: %d in %.3f s\n", machine.getInstructionCount(),
+                                (System.nanoTime() - runStarted) / 1e9);
+                    }
+                    return;
+                case BREAKPOINT:
+                case DATA_BREAKPOINT:
+                    stop();
+                    breakpointHit = true;
+                    return;
+                case STOPPED:
+                    // stop was called from another thread, a stale request only cost an empty run
+                    if (runPredicate != stopPredicate) return;
+                    continue;
+                default:
+                    // invalid opcodes and addresses are reported by the machine and skipped
+                    break;
             }
-
-            if (stopPredicate.test(machine)) {
+            if (stepping && stopPredicate.test(machine)) {
                 stop();
-                break;
+                return;
             }
         }
     }
@@ -109,30 +212,142 @@ public class Executor {
      * @param stopPredicate Stop if predicate passes.
      */
     private void runUntil(Predicate<Machine> stopPredicate) {
-        if (timer != null) return;
-        timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                timerTickUntil(stopPredicate);
+        synchronized (runLock) {
+            if (runPredicate != null) return;
+            runPredicate = stopPredicate;
+            if (runThread == null) {
+                runThread = new Thread(this::runLoop, "Executor");
+                runThread.setDaemon(true);
+                runThread.start();
+            }
+            runLock.notifyAll();
+        }
+    }
+
+    private void runLoop() {
+        while (true) {
+            Predicate<Machine> stopPredicate;
+            synchronized (runLock) {
+                while (runPredicate == null) {
+                    try {
+                        runLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                stopPredicate = runPredicate;
+                busy = true;
+            }
+            runStarted = System.nanoTime();
+            try {
+                if (stopPredicate == Seeking) {
+                    replay(stopPredicate);
+                } else if (turbo) {
+                    while (runPredicate == stopPredicate)
+                        runBatchUntil(stopPredicate, TurboBatch);
+                } else {
+                    runPaced(stopPredicate);
+                }
+            } finally {
+                synchronized (runLock) {
+                    busy = false;
+                    runLock.notifyAll();
+                }
+            }
+            // views are refreshed also after a stop that did not wait for the thread
+            hasChanged = true;
+            // listeners see the executor stopped
+            if (breakpointHit && onBreakpoint != null) onBreakpoint.actionPerformed(null);
+            breakpointHit = false;
+        }
+    }
+
+    /**
+     * Run at the set speed: each batch executes the instructions that are due by now,
+     * and the thread parks until more are due.
+     */
+    private void runPaced(Predicate<Machine> stopPredicate) {
+        int hz = speed;
+        long epoch = System.nanoTime();
+        long executed = 0;      // instructions executed since epoch
+        while (runPredicate == stopPredicate) {
+            long now = System.nanoTime();
+            if (hz != speed) {
+                // speed changed while running
+                hz = speed;
+                epoch = now;
+                executed = 0;
+            }
+            long elapsed = now - epoch;
+            long due = (long) (elapsed * (double) hz / Second) - executed;
+            if (due <= 0) {
+                long wait = (executed + 1) * Second / hz - elapsed;
+                LockSupport.parkNanos(this, Math.min(wait, MaxPark));
+                continue;
+            }
+            long maxDue = Math.max(hz * MaxLag / Second, 1);
+            if (due > maxDue) {
+                // fell behind, e.g. the host was paused: drop what cannot be caught up
+                executed += due - maxDue;
+                due = maxDue;
+            }
+            int batch = (int) Math.min(due, Math.max(hz * MaxBatchTime / Second, 1));
+            long before = machine.getInstructionCount();
+            runBatchUntil(stopPredicate, batch);
+            executed += machine.getInstructionCount() - before;
+            // move the epoch every second of machine time to keep the arithmetic small
+            if (executed >= hz) {
+                epoch += Second;
+                executed -= hz;
             }
-        }, 0, timerPeriod);
+        }
     }
 
     public void start() {
-        Predicate<Machine> stopPredicate = x -> false; // Never stop - no additional stop condition
-        runUntil(stopPredicate);
+        runUntil(NeverStop); // Never stop - no additional stop condition
     }
 
-    public void stop() {
-        if (timer == null) return;
-        timer.cancel();
-        timer = null;
+    /**
+     * Stop running and wait a short while until the run thread has left the machine, so that the caller may change it.
+     * A thread blocked in a device read, e.g. RD from stdin, cannot be woken: it stops after the read completes,
+     * isRunning stays true and hasChanged reports the stop until then.
+     * Called from the run thread itself, e.g. on a halt, it only ends the current run.
+     * @return false if the run thread has not stopped yet
+     */
+    public boolean stop() {
+        return stop(StopWait);
+    }
+
+    /**
+     * Stop running and wait at most timeout ms for the run thread, forever if 0.
+     */
+    private boolean stop(long timeout) {
+        synchronized (runLock) {
+            runPredicate = null;
+            Thread thread = runThread;
+            if (thread == null || thread == Thread.currentThread()) return true;
+            if (busy) machine.stop();
+            LockSupport.unpark(thread);
+            long deadline = System.currentTimeMillis() + timeout;
+            boolean interrupted = false;
+            while (busy) {
+                long wait = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+                if (timeout != 0 && wait <= 0) break;
+                try {
+                    runLock.wait(wait);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return !busy;
+        }
     }
 
     public void step() {
         if (!isRunning()) {
 
+            machine.setLean(false);
             boolean dataBpEnabledBefore = dataBreakpoints.isEnabled();
             dataBreakpoints.disable();
 
@@ -148,8 +363,80 @@ public class Executor {
         }
     }
 
+    /**
+     * Undo the last executed instruction.
+     * @return false if running or there is nothing left to undo
+     */
+    public boolean stepBack() {
+        if (isRunning()) return false;
+        boolean undone = machine.stepBack();
+        hasChanged = true;
+        return undone;
+    }
+
+    /**
+     * Bring the machine to the state after the given number of executed instructions:
+     * restore the latest checkpoint before it and replay from there, or just run forward.
+     * The replay runs on the run thread, isRunning is true until it is done and stop cancels it.
+     * Replay is exact as long as the program does not depend on device input, or a device log replays it.
+     * It ends early if the program halts.
+     * @return false if running or the instruction count is before the first checkpoint
+     */
+    public boolean seek(long instructionCount) {
+        if (isRunning()) return false;
+        if (instructionCount < machine.getInstructionCount()
+                && (checkpoints == null || checkpoints.before(instructionCount) == null)) return false;
+        seekTarget = instructionCount;
+        runUntil(Seeking);
+        return true;
+    }
+
+    private void replay(Predicate<Machine> stopPredicate) {
+        long target = seekTarget;
+        if (target < machine.getInstructionCount()) {
+            Checkpoint checkpoint = checkpoints.before(target);
+            machine.restore(checkpoint);
+            checkpoints.truncate(checkpoint);
+        }
+        // replay without recording and without stopping at breakpoints
+        UndoLog log = machine.getUndoLog();
+        machine.setUndoLog(null);
+        dataBreakpoints.suspend();
+        machine.setLean(false);
+        try {
+            while (runPredicate == stopPredicate && machine.getInstructionCount() < target) {
+                long budget = target - machine.getInstructionCount();
+                if (checkpoints != null) {
+                    checkpoints.update(machine);
+                    budget = Math.min(budget, checkpoints.remaining(machine));
+                }
+                // invalid opcodes and addresses are reported by the machine and skipped
+                if (machine.run(budget, 0, null) == StopReason.HALT) break;
+            }
+        } finally {
+            dataBreakpoints.resume();
+            machine.setUndoLog(log);
+            if (log != null) log.clear();
+            hasChanged = true;
+        }
+        stop();
+    }
+
+    /**
+     * Step back until PC reaches a breakpoint or there is nothing left to undo.
+     */
+    public void runBackToBreakpoint() {
+        if (isRunning()) return;
+        while (machine.stepBack())
+            if (breakpoints.has(machine.registers.getPC())) break;
+        hasChanged = true;
+    }
+
+    /**
+     * True from start until the run thread has actually stopped changing the machine.
+     */
     public boolean isRunning() {
-        return timer != null;
+        return runPredicate != null || busy;
     }
 
     public boolean hasChanged() {
@@ -14,6 +14,7 @@ import sic.sim.addons.GraphicalScreen;
 import sic.sim.addons.Keyboard;
 import sic.sim.addons.TextualScreen;
 import sic.sim.views.*;
+import sic.sim.vm.Snapshot;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -163,6 +164,26 @@ public class MainView {
                 if (file != null) loadObj(file);
             }
         });
+        GUI.addMenuItem(menu, "Load snapshot", KeyEvent.VK_N, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                File file = GUI.openFileDialog(mainFrame, new FileNameExtensionFilter("Machine snapshots", Snapshot.EXTENSION));
+                if (file != null) loadSnapshot(file);
+            }
+        });
+        GUI.addMenuItem(menu, "Save snapshot", KeyEvent.VK_S, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                File file = GUI.saveFileDialog(mainFrame, new FileNameExtensionFilter("Machine snapshots", Snapshot.EXTENSION));
+                if (file == null) return;
+                if (!executor.stop()) {
+                    JOptionPane.showMessageDialog(mainFrame, "The machine is waiting for input, try again after it stops.");
+                    return;
+                }
+                if (!Snapshot.save(executor.machine, file.getPath()))
+                    JOptionPane.showMessageDialog(mainFrame, "Error saving snapshot.");
+            }
+        });
         GUI.addMenuItem(menu, "Link & load objs", KeyEvent.VK_M, KeyStroke.getKeyStroke(KeyEvent.VK_L, InputEvent.CTRL_DOWN_MASK), new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -191,6 +212,7 @@ public class MainView {
                 executor.getMachine().registers.reset();
                 executor.getMachine().memory.reset();
                 executor.getMachine().clearLastExecReadWrite();
+                executor.clearHistory();
                 disassemblyView.clearLabelMap();
                 watchView.clearLabelMap();
                 updateView();
@@ -200,6 +222,7 @@ public class MainView {
             @Override
             public void actionPerformed(ActionEvent actionEvent) {
                 executor.getMachine().registers.reset();
+                executor.clearHistory();
                 updateView();
             }
         });
@@ -208,6 +231,7 @@ public class MainView {
             public void actionPerformed(ActionEvent actionEvent) {
                 executor.getMachine().memory.reset();
                 executor.getMachine().clearLastExecReadWrite();
+                executor.clearHistory();
                 disassemblyView.clearLabelMap();
                 watchView.clearLabelMap();
                 updateView();
@@ -248,6 +272,32 @@ public class MainView {
                 executor.stop();
             }
         });
+        GUI.addMenuItem(menu, "Step back", KeyEvent.VK_K, KeyStroke.getKeyStroke(KeyEvent.VK_F6, InputEvent.CTRL_DOWN_MASK), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                executor.stepBack();
+            }
+        });
+        GUI.addMenuItem(menu, "Run back", KeyEvent.VK_R, KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.CTRL_DOWN_MASK), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                executor.runBackToBreakpoint();
+            }
+        });
+        GUI.addMenuItem(menu, "Seek", KeyEvent.VK_E, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                String count = JOptionPane.showInputDialog(mainFrame, "Instruction count",
+                        Long.toString(executor.getMachine().getInstructionCount()));
+                if (count == null) return;
+                try {
+                    if (!executor.seek(Long.parseLong(count.trim())))
+                        JOptionPane.showMessageDialog(mainFrame, "Cannot seek there.");
+                } catch (NumberFormatException e) {
+                    JOptionPane.showMessageDialog(mainFrame, "Invalid instruction count.");
+                }
+            }
+        });
         menu.addSeparator();
         GUI.addMenuItem(menu, "Step out", KeyEvent.VK_O, KeyStroke.getKeyStroke(KeyEvent.VK_F6, InputEvent.SHIFT_DOWN_MASK), new ActionListener() {
             @Override
@@ -314,6 +364,8 @@ public class MainView {
             loadAsm(file);
         else if ("obj".equals(ext))
             loadObj(file);
+        else if (Snapshot.EXTENSION.equals(ext))
+            loadSnapshot(file);
         else
             JOptionPane.showMessageDialog(mainFrame, "Invalid filename extension.");
     }
@@ -324,6 +376,7 @@ public class MainView {
         try {
             Reader reader = new FileReader(file);
             Loader.loadSection(executor.machine, reader);
+            executor.clearHistory();
             lastLoadedFile = file;
             mainFrame.setTitle(file.getName());
 			updateView();
@@ -333,6 +386,19 @@ public class MainView {
         }
     }
 
+    public void loadSnapshot(File file) {
+        disassemblyView.clearLabelMap();
+        watchView.clearLabelMap();
+        if (Snapshot.load(executor.machine, file.getPath())) {
+            executor.clearHistory();
+            lastLoadedFile = file;
+            mainFrame.setTitle(file.getName());
+        } else {
+            JOptionPane.showMessageDialog(mainFrame, "Error loading snapshot.");
+        }
+        updateView();
+    }
+
     public void loadAsm(File file) {
         Assembler assembler = new Assembler();
         ErrorCatcher errorCatcher = assembler.errorCatcher;
@@ -348,6 +414,7 @@ public class MainView {
         assembler.generateObj(program, writer, false);
         Reader reader = new StringReader(writer.toString());
         Loader.loadSection(executor.machine, reader);
+        executor.clearHistory();
         lastLoadedFile = file;
         mainFrame.setTitle(file.getName());
 
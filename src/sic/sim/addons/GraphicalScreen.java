@@ -4,6 +4,7 @@ import sic.common.Conversion;
 import sic.common.GUI;
 import sic.common.SICXE;
 import sic.sim.Executor;
+import sic.sim.vm.DirtyPages;
 import sic.sim.vm.Memory;
 
 import javax.swing.*;
@@ -27,6 +28,8 @@ public class GraphicalScreen {
     public final int PIXELSIZE = 4;
 
     private final Memory memory;
+    private final DirtyPages dirty;
+    private boolean stale;              // settings changed, repaint regardless of memory
     // settings
     private int address;
     private int rows;
@@ -118,6 +121,9 @@ public class GraphicalScreen {
         this.rows = rows;
         this.cols = cols;
         this.pixelSize = pixelSize;
+        this.stale = true;
+        // the VSync byte shares its page with the end of the screen
+        dirty.ignore(addr + cols * rows);
         pnlScreen.setPreferredSize(new Dimension(cols * pixelSize, rows * pixelSize));
 
         updateView();
@@ -130,12 +136,18 @@ public class GraphicalScreen {
     }
 
     public void updateView() {
+        // paintScreen writes the VSync byte itself, so it is left out of the dirty range;
+        // a program that cleared it is waiting for the next frame
+        boolean vsync = memory.getByteRaw(address + rows * cols) == 0;
+        if (!dirty.clear(address, rows * cols) && !stale && !vsync) return;
+        stale = false;
         pnlScreen.repaint();
     }
 
 
     public GraphicalScreen(final Executor executor) {
         this.memory = executor.getMachine().memory;
+        this.dirty = memory.trackDirtyPages();
         this.view = createView();
         setScreen(ADDRESS, COLS, ROWS, PIXELSIZE);
     }
@@ -5,7 +5,8 @@ import sic.common.GUI;
 import sic.common.SICXE;
 import sic.common.Logger;
 import sic.sim.Executor;
-import sic.sim.vm.Memory;
+import sic.sim.vm.DeviceLog;
+import sic.sim.vm.Machine;
 
 import javax.swing.*;
 import javax.swing.border.BevelBorder;
@@ -26,7 +27,7 @@ public class Keyboard {
 
     public final int ADDRESS = 0xC000;
 
-    private final Memory memory;
+    private final Machine machine;
     // gui
     private final JFrame view;
     // settings
@@ -34,7 +35,7 @@ public class Keyboard {
     private JTextArea inputArea;
 
     public Keyboard(final Executor executor) {
-        this.memory = executor.getMachine().memory;
+        this.machine = executor.getMachine();
         this.view = createView();
         setScreen(ADDRESS);
     }
@@ -64,7 +65,10 @@ public class Keyboard {
                 e.consume();
                 int value = (Character.toUpperCase(e.getKeyChar()) & 0xFF);
                 inputArea.setText(String.format("%c => %c (%d) ", e.getKeyChar(), (char)value, value));
-                memory.setByteRaw(address, value);
+                // a device log applies keys between instructions
+                DeviceLog log = machine.getDeviceLog();
+                if (log != null) log.keyPressed(address, value);
+                else machine.memory.setByteRaw(address, value);
             }
 
             @Override
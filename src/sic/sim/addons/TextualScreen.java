@@ -4,6 +4,7 @@ import sic.common.Conversion;
 import sic.common.GUI;
 import sic.common.SICXE;
 import sic.sim.Executor;
+import sic.sim.vm.DirtyPages;
 import sic.sim.vm.Memory;
 
 import javax.swing.*;
@@ -27,6 +28,8 @@ public class TextualScreen {
     public final int FONTSIZE = 12;
 
     private final Memory memory;
+    private final DirtyPages dirty;
+    private boolean stale;              // settings changed, redraw regardless of memory
     // settings
     private int address;
     private int rows;
@@ -37,6 +40,7 @@ public class TextualScreen {
 
     public TextualScreen(final Executor executor) {
         this.memory = executor.getMachine().memory;
+        this.dirty = memory.trackDirtyPages();
         this.view = createView();
         setScreen(ADDRESS, COLS, ROWS, FONTSIZE);
     }
@@ -57,6 +61,7 @@ public class TextualScreen {
         this.address = addr;
         this.rows = rows;
         this.cols = cols;
+        this.stale = true;
         txtScreen.setRows(rows);
         txtScreen.setColumns(cols);
 //        txtScreen.setFont(new java.awt.Font("Courier New", java.awt.Font.BOLD, fontSize));
@@ -99,6 +104,8 @@ public class TextualScreen {
 
     public void updateView() {
         if (memory == null) return;
+        if (!dirty.clear(address, rows * cols) && !stale) return;
+        stale = false;
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < cols; j++) {
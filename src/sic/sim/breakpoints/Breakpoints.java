@@ -1,38 +1,48 @@
 package sic.sim.breakpoints;
 
-import java.util.ArrayList;
-import java.util.List;
+import sic.sim.vm.Machine;
+
+import java.util.Arrays;
 
 /**
  * @author: jure
  */
 public class Breakpoints {
 
-    // list of addresses of breakpoints
-    private List<Integer> addrs;
+    private static final int SIZE = Machine.MAX_ADDRESS + 1;
+
+    // one bit per address of breakpoints
+    private final long[] addrs = new long[(SIZE + 63) >> 6];
+    // number of breakpoints, checked first so that running without breakpoints costs nothing
+    private int count;
 
     public boolean has(int addr) {
-        return addrs.contains(addr);
+        return count != 0 && addr >= 0 && addr < SIZE && (addrs[addr >> 6] & 1L << addr) != 0;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
     }
 
     public void add(int addr) {
-        if (!has(addr)) addrs.add(addr);
+        if (addr < 0 || addr >= SIZE || has(addr)) return;
+        addrs[addr >> 6] |= 1L << addr;
+        count++;
     }
 
     public void remove(int addr) {
-        addrs.remove((Integer)addr);
+        if (!has(addr)) return;
+        addrs[addr >> 6] &= ~(1L << addr);
+        count--;
     }
 
     public void removeAll() {
-        addrs = new ArrayList<Integer>();
+        Arrays.fill(addrs, 0);
+        count = 0;
     }
 
     public void toggleBreakpoint(int addr) {
         if (has(addr)) remove(addr); else add(addr);
     }
 
-    public Breakpoints() {
-        addrs = new ArrayList<Integer>();
-    }
-
 }
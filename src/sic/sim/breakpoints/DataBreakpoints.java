@@ -1,12 +1,26 @@
 package sic.sim.breakpoints;
 
+import sic.sim.vm.Machine;
+
 import java.util.ArrayList;
 import java.util.Iterator;
 
 public class DataBreakpoints {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGES = (Machine.MAX_ADDRESS >> PAGE_BITS) + 1;
+
     private ArrayList<DataBreakpoint> breakpoints = new ArrayList<>();
 
     private boolean enabled = false;
+    private boolean suspended = false;
+
+    // index of the enabled breakpoints, rebuilt after any change of the breakpoints:
+    // a bitmap of pages touched by some breakpoint answers most checks, the interval tree the rest
+    private boolean stale = true;
+    private long[] readPages;
+    private long[] writePages;
+    private IntervalIndex readIndex;
+    private IntervalIndex writeIndex;
 
     public boolean isEnabled() {
         return enabled;
@@ -20,6 +34,22 @@ public class DataBreakpoints {
         this.enabled = false;
     }
 
+    /**
+     * Ignore all breakpoints until resume, e.g. while replaying; unlike disable it is not undone
+     * by the machine letting the next instruction through.
+     */
+    public void suspend() {
+        this.suspended = true;
+    }
+
+    public void resume() {
+        this.suspended = false;
+    }
+
+    public boolean isEmpty() {
+        return breakpoints.isEmpty();
+    }
+
     public Iterator<DataBreakpoint> getBreakpointsIterator() {
         return breakpoints.iterator();
     }
@@ -30,13 +60,14 @@ public class DataBreakpoints {
      * @param address Address to check
      */
     public void checkRead(int address) throws ReadDataBreakpointException {
-        if (!this.enabled) return;
-
-        for (DataBreakpoint breakpoint : breakpoints) {
-            if (breakpoint.checkRead(address)) {
-                this.disable(); // let next instruction through
-                throw new ReadDataBreakpointException(breakpoint, address);
-            }
+        if (!this.enabled || breakpoints.isEmpty() || suspended) return;
+        if (stale) rebuild();
+        if (!marked(readPages, address)) return;
+
+        DataBreakpoint breakpoint = readIndex.find(address);
+        if (breakpoint != null) {
+            this.disable(); // let next instruction through
+            throw new ReadDataBreakpointException(breakpoint, address);
         }
     }
 
@@ -46,26 +77,95 @@ public class DataBreakpoints {
      * @param address Address to check
      */
     public void checkWrite(int address) throws WriteDataBreakpointException {
-        if (!this.enabled) return;
+        if (!this.enabled || breakpoints.isEmpty() || suspended) return;
+        if (stale) rebuild();
+        if (!marked(writePages, address)) return;
+
+        DataBreakpoint breakpoint = writeIndex.find(address);
+        if (breakpoint != null) {
+            this.disable(); // let next instruction through
+            throw new WriteDataBreakpointException(breakpoint, address);
+        }
+    }
 
+    /**
+     * Check an access of length bytes (at most a page) starting at the given address.
+     * Throws exception for the first byte that triggers a breakpoint.
+     */
+    public void checkRead(int address, int length) throws ReadDataBreakpointException {
+        if (!this.enabled || breakpoints.isEmpty() || suspended) return;
+        if (stale) rebuild();
+        if (!marked(readPages, address) && !marked(readPages, address + length - 1)) return;
+
+        for (int a = address; a < address + length; a++) checkRead(a);
+    }
+
+    /**
+     * Check an access of length bytes (at most a page) starting at the given address.
+     * Throws exception for the first byte that triggers a breakpoint.
+     */
+    public void checkWrite(int address, int length) throws WriteDataBreakpointException {
+        if (!this.enabled || breakpoints.isEmpty() || suspended) return;
+        if (stale) rebuild();
+        if (!marked(writePages, address) && !marked(writePages, address + length - 1)) return;
+
+        for (int a = address; a < address + length; a++) checkWrite(a);
+    }
+
+    private static boolean marked(long[] pages, int address) {
+        int page = address >> PAGE_BITS;
+        return page >= 0 && page < PAGES && (pages[page >> 6] & 1L << page) != 0;
+    }
+
+    /**
+     * Called when a breakpoint was added, removed or changed.
+     */
+    void changed() {
+        stale = true;
+    }
+
+    private void rebuild() {
+        ArrayList<DataBreakpoint> read = new ArrayList<>();
+        ArrayList<DataBreakpoint> write = new ArrayList<>();
+        readPages = new long[(PAGES + 63) >> 6];
+        writePages = new long[(PAGES + 63) >> 6];
         for (DataBreakpoint breakpoint : breakpoints) {
-            if (breakpoint.checkWrite(address)) {
-                this.disable(); // let next instruction through
-                throw new WriteDataBreakpointException(breakpoint, address);
+            if (!breakpoint.isEnabled()) continue;
+            if (breakpoint.getRead()) {
+                read.add(breakpoint);
+                mark(readPages, breakpoint);
+            }
+            if (breakpoint.getWrite()) {
+                write.add(breakpoint);
+                mark(writePages, breakpoint);
             }
         }
+        readIndex = new IntervalIndex(read);
+        writeIndex = new IntervalIndex(write);
+        stale = false;
+    }
+
+    private static void mark(long[] pages, DataBreakpoint breakpoint) {
+        int first = Math.max(breakpoint.getFrom() >> PAGE_BITS, 0);
+        int last = Math.min(breakpoint.getTo() >> PAGE_BITS, PAGES - 1);
+        for (int page = first; page <= last; page++)
+            pages[page >> 6] |= 1L << page;
     }
 
     public void add(DataBreakpoint breakpoint) {
         this.breakpoints.add(breakpoint);
+        breakpoint.owner = this;
+        changed();
     }
 
     public void remove(DataBreakpoint breakpoint) {
-        this.breakpoints.remove(breakpoint);
+        if (this.breakpoints.remove(breakpoint)) breakpoint.owner = null;
+        changed();
     }
 
     public void remove(int breakpointIndex) {
-        this.breakpoints.remove(breakpointIndex);
+        this.breakpoints.remove(breakpointIndex).owner = null;
+        changed();
     }
 
     public DataBreakpoint at(int index) {
@@ -0,0 +1,68 @@
+package sic.sim.breakpoints;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Static interval tree over the ranges of data breakpoints.
+ * The tree is laid out implicitly in an array sorted by range start: the middle element of a subarray
+ * is the root of its subtree and knows the largest range end within the subtree.
+ */
+class IntervalIndex {
+
+    private final DataBreakpoint[] breakpoints;
+    private final int[] order;      // position of the breakpoint in the list it came from
+    private final int[] from;
+    private final int[] to;
+    private final int[] maxTo;      // largest range end in the subtree
+
+    IntervalIndex(List<DataBreakpoint> list) {
+        int n = list.size();
+        Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) sorted[i] = i;
+        Arrays.sort(sorted, Comparator.comparingInt(i -> list.get(i).getFrom()));
+        breakpoints = new DataBreakpoint[n];
+        order = new int[n];
+        from = new int[n];
+        to = new int[n];
+        maxTo = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = sorted[i];
+            breakpoints[i] = list.get(sorted[i]);
+            from[i] = breakpoints[i].getFrom();
+            to[i] = breakpoints[i].getTo();
+        }
+        build(0, n);
+    }
+
+    private int build(int lo, int hi) {
+        if (lo >= hi) return Integer.MIN_VALUE;
+        int mid = (lo + hi) >>> 1;
+        maxTo[mid] = Math.max(to[mid], Math.max(build(lo, mid), build(mid + 1, hi)));
+        return maxTo[mid];
+    }
+
+    /**
+     * Find the breakpoint whose range contains the address.
+     * If there are several, the one added first is returned.
+     * @return null if there is none
+     */
+    DataBreakpoint find(int address) {
+        int found = find(0, breakpoints.length, address, -1);
+        return found < 0 ? null : breakpoints[found];
+    }
+
+    private int find(int lo, int hi, int address, int found) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (maxTo[mid] < address) break;
+            found = find(lo, mid, address, found);
+            if (from[mid] > address) break;
+            if (to[mid] >= address && (found < 0 || order[mid] < order[found])) found = mid;
+            lo = mid + 1;
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,117 @@
+package sic.sim.trace;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static sic.sim.trace.TraceWriter.*;
+
+/**
+ * Reads a trace written by TraceWriter one instruction at a time.
+ * After each successful next() the fields describe the instruction and the registers after it.
+ */
+public class TraceReader implements AutoCloseable {
+
+    private static final long SEGMENT = 64 << 20;
+    private static final int MAX_RECORD = 128;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buffer;
+    private long segmentStart;
+
+    // current instruction
+    public long count;                  // instruction count after it
+    public int pc;
+    public final byte[] bytes = new byte[4];
+    public int length;                  // 0 if aborted
+    public boolean aborted;             // stopped by a data breakpoint and executed again from the same PC
+    public int readAddress = -1, readLength;
+    public int writeAddress = -1, writeLength;
+    public int changed;                 // mask of changed registers, see TraceWriter
+    public final int[] registers = new int[REGISTER_COUNT - 1];
+    public double f;
+
+    private int expectedPC;
+    private long records;               // left to read
+
+    public TraceReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+        if (size < 52 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a trace file: " + path);
+        // version 1 had no aborted instructions nor the number of records and ends with the file
+        int version = buffer.getInt();
+        if (version > VERSION) throw new IOException("Unknown trace version: " + path);
+        records = version >= 2 ? buffer.getLong() : Long.MAX_VALUE;
+        count = version >= 3 ? buffer.getLong() : buffer.getInt();
+        expectedPC = pc = buffer.getInt();
+        for (int i = 0; i < registers.length; i++) registers[i] = buffer.getInt();
+        f = buffer.getDouble();
+    }
+
+    private void map(long position) throws IOException {
+        segmentStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT, size - position));
+    }
+
+    /**
+     * Read the next instruction.
+     * @return false at the end of the trace
+     */
+    public boolean next() throws IOException {
+        if (buffer.remaining() < MAX_RECORD && segmentStart + buffer.limit() < size)
+            map(segmentStart + buffer.position());
+        if (records == 0 || !buffer.hasRemaining()) return false;
+        records--;
+        int flags = buffer.get() & 0xFF;
+        aborted = (flags & ABORTED) != 0;
+        length = aborted ? 0 : (flags & LENGTH_MASK) + 1;
+        pc = (flags & JUMP) != 0 ? expectedPC + getSigned() : expectedPC;
+        buffer.get(bytes, 0, length);
+        readAddress = writeAddress = -1;
+        readLength = writeLength = 0;
+        if ((flags & READ) != 0) {
+            readAddress = pc + getSigned();
+            readLength = getUnsigned();
+        }
+        if ((flags & WRITE) != 0) {
+            writeAddress = pc + getSigned();
+            writeLength = getUnsigned();
+        }
+        changed = 0;
+        if ((flags & REGISTERS) != 0) {
+            changed = buffer.get() & 0xFF;
+            for (int i = 0; i < registers.length; i++)
+                if ((changed & 1 << i) != 0) registers[i] += getSigned();
+            if ((changed & 1 << F) != 0) f = Double.longBitsToDouble(buffer.getLong());
+        }
+        expectedPC = pc + length;
+        count++;
+        return true;
+    }
+
+    private int getUnsigned() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    private int getSigned() {
+        int value = getUnsigned();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+
+}
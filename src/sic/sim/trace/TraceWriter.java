@@ -0,0 +1,215 @@
+package sic.sim.trace;
+
+import sic.common.Logger;
+import sic.sim.vm.Machine;
+import sic.sim.vm.MemorySpan;
+import sic.sim.vm.Registers;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary trace of executed instructions, written through memory-mapped segments of the file.
+ *
+ * The file starts with a header: magic, version, number of records, instruction count and all registers before
+ * the first traced instruction. Each instruction is then one record:
+ * <ul>
+ *     <li>flags: instruction length - 1, jump (PC not right after the previous instruction), read, write, registers changed,
+ *     aborted</li>
+ *     <li>for a jump the PC as a zigzag varint delta from the fall-through address</li>
+ *     <li>the instruction bytes as they were before it executed</li>
+ *     <li>read and write spans as a zigzag varint delta of the address from PC and a varint length</li>
+ *     <li>a mask of changed registers and for each the zigzag varint delta from its old value, raw bits for F</li>
+ * </ul>
+ * A typical instruction takes 5 to 8 bytes.
+ * An instruction aborted by a data breakpoint is counted by the machine, so it gets a record too: flags with
+ * length 1, the PC if it was a jump and any changed registers, but no bytes or spans. It is executed again from
+ * the same PC when the machine resumes.
+ *
+ * The file grows a whole segment at a time and is cut to its length by close. The number of records in the header
+ * is updated after every record through the mapping, so a trace of a process that was killed is still read up to
+ * its last record rather than into the zeros after it.
+ */
+public class TraceWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x53494354;      // "SICT"
+    static final int VERSION = 3;          // 2 added aborted instructions and the number of records, 3 a long instruction count
+
+    static final int LENGTH_MASK = 0x03;
+    static final int JUMP = 0x04;
+    static final int READ = 0x08;
+    static final int WRITE = 0x10;
+    static final int REGISTERS = 0x20;
+    static final int ABORTED = 0x40;
+
+    // registers in the mask, in this order
+    static final int A = 0, X = 1, L = 2, B = 3, S = 4, T = 5, SW = 6, F = 7;
+    static final int REGISTER_COUNT = 8;
+
+    static final int RECORDS = 8;             // offset of the number of records in the header
+    private static final long SEGMENT = 64 << 20;
+    private static final int MAX_RECORD = 128;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer buffer;
+    private long segmentStart;
+
+    private final int[] registers = new int[REGISTER_COUNT - 1];
+    private double f;
+    private int expectedPC;
+    private int pc;                                 // of the instruction about to execute, see before
+    private final byte[] bytes = new byte[4];       // its bytes before it executed
+    private long records;
+    private boolean failed;
+
+    public TraceWriter(Path path, Machine machine) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        map(0);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, RECORDS + 8);
+        Registers r = machine.registers;
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putLong(0);
+        buffer.putLong(machine.getInstructionCount());
+        buffer.putInt(r.getPC());
+        save(r);
+        for (int value : registers) buffer.putInt(value);
+        buffer.putDouble(f);
+        expectedPC = r.getPC();
+    }
+
+    private void map(long position) throws IOException {
+        segmentStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT);
+    }
+
+    private void save(Registers r) {
+        registers[A] = r.getA();
+        registers[X] = r.getX();
+        registers[L] = r.getL();
+        registers[B] = r.getB();
+        registers[S] = r.getS();
+        registers[T] = r.getT();
+        registers[SW] = r.getSW();
+        f = r.getF();
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Keep the bytes of the instruction the machine is about to execute, it may overwrite them.
+     */
+    public void before(Machine machine) {
+        pc = machine.registers.getPC();
+        int capacity = machine.memory.getCapacity();
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = pc + i >= 0 && pc + i < capacity ? (byte)machine.memory.getByteRaw(pc + i) : 0;
+    }
+
+    /**
+     * Append the instruction the machine has just executed, as described by its last executed spans.
+     * @param aborted a data breakpoint stopped the instruction, see before
+     */
+    public void record(Machine machine, boolean aborted) {
+        if (failed) return;
+        if (buffer.remaining() < MAX_RECORD) {
+            try {
+                map(segmentStart + buffer.position());
+            } catch (IOException e) {
+                Logger.fmterr("Cannot write trace '%s', tracing stopped.", path);
+                failed = true;
+                return;
+            }
+        }
+        MemorySpan exec = machine.getLastExecAddr();
+        MemorySpan read = machine.getLastExecRead();
+        MemorySpan write = machine.getLastExecWrite();
+        Registers r = machine.registers;
+        int length = aborted ? 1 : Math.min(Math.max(exec.getSpanLength(), 1), 4);
+
+        int changed = 0;
+        if (r.getA() != registers[A]) changed |= 1 << A;
+        if (r.getX() != registers[X]) changed |= 1 << X;
+        if (r.getL() != registers[L]) changed |= 1 << L;
+        if (r.getB() != registers[B]) changed |= 1 << B;
+        if (r.getS() != registers[S]) changed |= 1 << S;
+        if (r.getT() != registers[T]) changed |= 1 << T;
+        if (r.getSW() != registers[SW]) changed |= 1 << SW;
+        if (Double.doubleToRawLongBits(r.getF()) != Double.doubleToRawLongBits(f)) changed |= 1 << F;
+
+        boolean reads = !aborted && read.getSpanLength() > 0;
+        boolean writes = !aborted && write.getSpanLength() > 0;
+        int flags = length - 1;
+        if (pc != expectedPC) flags |= JUMP;
+        if (reads) flags |= READ;
+        if (writes) flags |= WRITE;
+        if (changed != 0) flags |= REGISTERS;
+        if (aborted) flags |= ABORTED;
+        buffer.put((byte)flags);
+        if (pc != expectedPC) putSigned(pc - expectedPC);
+        if (!aborted) buffer.put(bytes, 0, length);
+        if (reads) {
+            putSigned(read.getStartAddress() - pc);
+            putUnsigned(read.getSpanLength());
+        }
+        if (writes) {
+            putSigned(write.getStartAddress() - pc);
+            putUnsigned(write.getSpanLength());
+        }
+        if (changed != 0) {
+            buffer.put((byte)changed);
+            putRegister(changed, A, r.getA());
+            putRegister(changed, X, r.getX());
+            putRegister(changed, L, r.getL());
+            putRegister(changed, B, r.getB());
+            putRegister(changed, S, r.getS());
+            putRegister(changed, T, r.getT());
+            putRegister(changed, SW, r.getSW());
+            if ((changed & 1 << F) != 0) {
+                f = r.getF();
+                buffer.putLong(Double.doubleToRawLongBits(f));
+            }
+        }
+        expectedPC = aborted ? pc : pc + length;
+        header.putLong(RECORDS, ++records);
+    }
+
+    private void putRegister(int changed, int register, int value) {
+        if ((changed & 1 << register) == 0) return;
+        putSigned(value - registers[register]);
+        registers[register] = value;
+    }
+
+    private void putUnsigned(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte)(value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    private void putSigned(int value) {
+        putUnsigned(value << 1 ^ value >> 31);
+    }
+
+    /**
+     * Cut the file to the written length.
+     */
+    @Override
+    public void close() throws IOException {
+        long size = segmentStart + buffer.position();
+        buffer.force();
+        buffer = null;
+        channel.truncate(size);
+        channel.close();
+    }
+
+}
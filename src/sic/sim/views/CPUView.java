@@ -45,6 +45,8 @@ public class CPUView {
     private JTextField txtInstruction;
     private JButton btnStep;
     private JButton btnStartStop;
+    private JButton btnStepBack;
+    private JButton btnRunBack;
     public JPanel mainPanel;
     private JLabel lblInfo;
 
@@ -73,6 +75,18 @@ public class CPUView {
             }
 
         });
+        btnStepBack.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+                executor.stepBack();
+                updateView();
+            }
+        });
+        btnRunBack.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+                executor.runBackToBreakpoint();
+                updateView();
+            }
+        });
         regA.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent evt) {
                 registers.setA(Conversion.hexToInt(regA.getText()));
@@ -164,6 +178,8 @@ public class CPUView {
         updateRegWord(regPC, registers.getPC());
         //
         btnStartStop.setText(executor.isRunning() ? "Stop" : "Start");
+        btnStepBack.setEnabled(executor.isReverseExecution());
+        btnRunBack.setEnabled(executor.isReverseExecution());
         //
         Command cmd = disassembler.disassemble(registers.getPC());
         txtInstruction.setText(cmd == null ? "" : cmd.toString());
@@ -372,6 +388,24 @@ public class CPUView {
         gbc.gridy = 5;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         panel1.add(btnStep, gbc);
+        btnStepBack = new JButton();
+        btnStepBack.setText("Step back");
+        btnStepBack.setMnemonic('B');
+        btnStepBack.setDisplayedMnemonicIndex(5);
+        gbc = new GridBagConstraints();
+        gbc.gridx = 1;
+        gbc.gridy = 6;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        panel1.add(btnStepBack, gbc);
+        btnRunBack = new JButton();
+        btnRunBack.setText("Run back");
+        btnRunBack.setMnemonic('R');
+        btnRunBack.setDisplayedMnemonicIndex(0);
+        gbc = new GridBagConstraints();
+        gbc.gridx = 1;
+        gbc.gridy = 7;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        panel1.add(btnRunBack, gbc);
         lblInfo = new JLabel();
         Font lblInfoFont = this.$$$getFont$$$("Courier", -1, 12, lblInfo.getFont());
         if (lblInfoFont != null) lblInfo.setFont(lblInfoFont);
@@ -391,7 +425,7 @@ public class CPUView {
         final JPanel spacer1 = new JPanel();
         gbc = new GridBagConstraints();
         gbc.gridx = 1;
-        gbc.gridy = 6;
+        gbc.gridy = 8;
         gbc.fill = GridBagConstraints.VERTICAL;
         panel1.add(spacer1, gbc);
         label1.setLabelFor(regX);
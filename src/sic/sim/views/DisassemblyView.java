@@ -233,7 +233,7 @@ public class DisassemblyView {
     private void updateDisLine(int row, int addr, Command cmd) {
         updateBreakpoint(row, breakpoints.has(addr));
         modelDis.setValueAt(Conversion.addrToHex(addr), row, 1);
-        modelDis.setValueAt(Conversion.bytesToHex(machine.memory.memory, addr, cmd.size()), row, 2);
+        modelDis.setValueAt(Conversion.bytesToHex(machine.memory.getBytesRaw(addr, cmd.size())), row, 2);
         modelDis.setValueAt(toLabel(addr), row, 3);
         modelDis.setValueAt(cmd.nameToString(), row, 4);
         modelDis.setValueAt(cmd.operandToString(), row, 5);
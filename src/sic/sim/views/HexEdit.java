@@ -3,8 +3,10 @@ package sic.sim.views;
 import sic.common.Conversion;
 import sic.common.SICXE;
 import sic.sim.Colors;
+import sic.sim.vm.DirtyPages;
 import sic.sim.vm.Machine;
 import sic.sim.vm.Memory;
+import sic.sim.vm.MemorySpan;
 
 import javax.swing.*;
 import java.awt.*;
@@ -34,6 +36,9 @@ public class HexEdit extends JPanel implements FocusListener, MouseListener, Key
 
     private Machine machine;
     private Memory memory;
+    private DirtyPages dirty;
+    // highlighted spans at the last refresh
+    private final int[] spans = new int[6];
 
     private int startAddress;
 
@@ -170,6 +175,26 @@ public class HexEdit extends JPanel implements FocusListener, MouseListener, Key
     public void setMachine(Machine machine) {
         this.machine = machine;
         this.memory = machine.memory;
+        this.dirty = memory.trackDirtyPages();
+    }
+
+    /**
+     * Repaint if the visible bytes were written or the highlighted spans moved since the last refresh.
+     * Scrolling and editing repaint on their own.
+     */
+    public void refresh() {
+        boolean changed = dirty.clear(startAddress, getEndAddress() - startAddress + 1);
+        changed |= moved(0, machine.getLastExecRead());
+        changed |= moved(2, machine.getLastExecWrite());
+        changed |= moved(4, machine.getLastExecAddr());
+        if (changed) repaint();
+    }
+
+    private boolean moved(int i, MemorySpan span) {
+        if (spans[i] == span.getStartAddress() && spans[i + 1] == span.getSpanLength()) return false;
+        spans[i] = span.getStartAddress();
+        spans[i + 1] = span.getSpanLength();
+        return true;
     }
 
     @Override
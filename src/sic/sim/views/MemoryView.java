@@ -97,7 +97,7 @@ public class MemoryView {
     public void updateView() {
         txtLocation.setText(Conversion.addrToHex(hex.getStartAddress()));
         txtCursor.setText(Conversion.addrToHex(hex.getCursorAddress()));
-        hex.repaint();
+        hex.refresh();
     }
 
     {
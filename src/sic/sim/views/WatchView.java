@@ -6,6 +6,7 @@ import sic.sim.Executor;
 import sic.sim.breakpoints.DataBreakpoint;
 import sic.sim.views.components.treetable.JTreeTable;
 import sic.sim.views.components.treetable.TreeTableModel;
+import sic.sim.vm.DirtyPages;
 import sic.sim.vm.Memory;
 
 import javax.swing.*;
@@ -24,6 +25,7 @@ public class WatchView {
     private WatchTreeTableModel treeTableModel;
     // data & communication with other views
     private Memory memory;
+    private DirtyPages dirty;
     private ActionListener updateBreakpointsEvent;
     // data & cached
     private HashMap<Integer, StorageSymbol> labelMap = new HashMap<>();
@@ -34,6 +36,7 @@ public class WatchView {
     public WatchView(Executor executor, ActionListener updateBreakpoints) {
         $$$setupUI$$$();
         this.memory = executor.machine.memory;
+        this.dirty = memory.trackDirtyPages();
         this.updateBreakpointsEvent = updateBreakpoints;
         this.treeTableModel.setMemory(this.memory);
     }
@@ -84,9 +87,29 @@ public class WatchView {
      * Update the values inside nodes
      */
     private void refreshNodes() {
-        if (symbols != null && symbols.size() > 0) {
-            treeTableModel.fireTreeNodesChanged(this, null, indicies, symbols.toArray());
+        if (symbols == null || symbols.size() == 0) return;
+        // symbols are sorted by address; clearing a page shared with the previous symbol
+        // may already have consumed this symbol's mark, so such a symbol inherits its state
+        int[] changed = new int[symbols.size()];
+        int count = 0;
+        int lastPage = -1;
+        boolean lastDirty = false;
+        for (int i = 0; i < symbols.size(); i++) {
+            StorageSymbol symbol = symbols.get(i);
+            int start = symbol.value();
+            int length = Math.max(symbol.getElementCount() * symbol.getElementSize(), 1);
+            boolean dirty = this.dirty.clear(start, length) || lastDirty && start >> DirtyPages.PAGE_BITS <= lastPage;
+            if (dirty) changed[count++] = i;
+            int page = (start + length - 1) >> DirtyPages.PAGE_BITS;
+            if (page >= lastPage) {
+                lastDirty = dirty || page == lastPage && lastDirty;
+                lastPage = page;
+            }
         }
+        if (count == 0) return;
+        Object[] children = new Object[count];
+        for (int i = 0; i < count; i++) children[i] = symbols.get(changed[i]);
+        treeTableModel.fireTreeNodesChanged(this, null, Arrays.copyOf(changed, count), children);
     }
 
     /**
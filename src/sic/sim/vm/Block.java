@@ -0,0 +1,64 @@
+package sic.sim.vm;
+
+import sic.sim.breakpoints.DataBreakpointException;
+
+/**
+ * Basic block: straight-line sequence of instructions compiled into a chain of specialised operations.
+ * A block ends with a jump, a subroutine call or return, or a device instruction.
+ * An operation may execute several fused instructions, see BlockCompiler.
+ * A block executed often enough gets generated code instead, see BlockGenerator.
+ */
+class Block {
+
+    interface Op {
+        void exec(Machine machine) throws DataBreakpointException;
+    }
+
+    interface Code {
+        /**
+         * Execute the block, leaving it early as the chain of operations would.
+         * @return number of executed instructions
+         */
+        int exec(Machine machine, Block block) throws DataBreakpointException;
+    }
+
+    final int start;            // address of the first instruction
+    final int end;              // address just past the last instruction
+    final Op[] ops;
+    final int[] widths;         // number of instructions executed by each operation
+    final int[] addresses;      // address of each instruction
+    final DecodedInstruction[] instructions;
+    final boolean terminated;   // the last instruction sets PC itself
+
+    // cleared when a write hits the bytes of the block
+    boolean valid = true;
+
+    Code code;                  // generated once the block is hot
+    int runs;                   // executions so far, while there is no code
+
+    Block(int start, int end, Op[] ops, int[] widths, int[] addresses, DecodedInstruction[] instructions,
+          boolean terminated) {
+        this.start = start;
+        this.end = end;
+        this.ops = ops;
+        this.widths = widths;
+        this.addresses = addresses;
+        this.instructions = instructions;
+        this.terminated = terminated;
+    }
+
+    /**
+     * Number of instructions in the block.
+     */
+    int length() {
+        return addresses.length;
+    }
+
+    /**
+     * Address of the instruction following the first count instructions.
+     */
+    int next(int count) {
+        return count < addresses.length ? addresses[count] : end;
+    }
+
+}
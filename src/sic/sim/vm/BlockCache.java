@@ -0,0 +1,105 @@
+package sic.sim.vm;
+
+import java.util.Arrays;
+
+/**
+ * Compiled blocks keyed by their start address.
+ * Bitmaps mark every page and byte covered by some block, so writes to data answer "nothing here" with one or two array loads.
+ */
+class BlockCache {
+
+    private static final int PAGE_BITS = InstructionCache.PAGE_BITS;
+    private static final int PAGE_SIZE = InstructionCache.PAGE_SIZE;
+    private static final int PAGE_MASK = InstructionCache.PAGE_MASK;
+
+    private final int capacity;
+    private final Block[][] pages;
+    private final long[] codePages; // pages covered by some block, kept marked until clear
+    private long[] code;            // allocated with the first block
+
+    BlockCache(int capacity) {
+        this.capacity = capacity;
+        this.pages = new Block[(capacity + PAGE_SIZE - 1) >> PAGE_BITS][];
+        this.codePages = new long[(pages.length >> 6) + 1];
+    }
+
+    Block get(int address) {
+        Block[] page = pages[address >> PAGE_BITS];
+        return page == null ? null : page[address & PAGE_MASK];
+    }
+
+    void put(Block block) {
+        Block[] page = pages[block.start >> PAGE_BITS];
+        if (page == null)
+            page = pages[block.start >> PAGE_BITS] = new Block[PAGE_SIZE];
+        Block old = page[block.start & PAGE_MASK];
+        if (old != null) old.valid = false;
+        page[block.start & PAGE_MASK] = block;
+        if (code == null) code = new long[(capacity + 63) >> 6];
+        mark(block);
+    }
+
+    private void mark(Block block) {
+        for (int a = block.start; a < block.end; a++) {
+            codePages[a >> PAGE_BITS + 6] |= 1L << (a >> PAGE_BITS);
+            code[a >> 6] |= 1L << a;
+        }
+    }
+
+    private boolean hasCodePage(int address) {
+        return (codePages[address >> PAGE_BITS + 6] & 1L << (address >> PAGE_BITS)) != 0;
+    }
+
+    private void unmark(Block block) {
+        for (int a = block.start; a < block.end; a++)
+            code[a >> 6] &= ~(1L << a);
+    }
+
+    /**
+     * Drop all blocks that contain the byte at the given address.
+     */
+    void invalidate(int address) {
+        if (!hasCodePage(address) || (code[address >> 6] & 1L << address) == 0) return;
+        int from = Math.max(address - BlockCompiler.MAX_BLOCK_BYTES + 1, 0);
+        int to = address;
+        for (int a = from; a <= address; a++) {
+            Block block = get(a);
+            if (block == null || block.end <= address) continue;
+            block.valid = false;
+            pages[a >> PAGE_BITS][a & PAGE_MASK] = null;
+            unmark(block);
+            to = Math.max(to, block.end);
+        }
+        // blocks that overlap the dropped ones lost some of their marks
+        for (int a = Math.max(from - BlockCompiler.MAX_BLOCK_BYTES, 0); a < to; a++) {
+            Block block = get(a);
+            if (block != null) mark(block);
+        }
+    }
+
+    /**
+     * Drop all blocks that overlap the given range.
+     */
+    void invalidate(int address, int length) {
+        if (code == null) return;
+        for (int a = Math.max(address, 0); a < address + length && a < capacity; a++) {
+            if (!hasCodePage(a))
+                a |= PAGE_MASK;     // skip the whole page
+            else
+                invalidate(a);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < pages.length; i++) {
+            Block[] page = pages[i];
+            if (page == null) continue;
+            for (Block block : page)
+                if (block != null) block.valid = false;
+            pages[i] = null;
+        }
+        code = null;
+        Arrays.fill(codePages, 0);
+    }
+
+}
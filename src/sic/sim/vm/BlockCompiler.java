@@ -0,0 +1,385 @@
+package sic.sim.vm;
+
+import sic.common.Flags;
+import sic.common.Opcode;
+import sic.common.SICXE;
+import sic.sim.breakpoints.DataBreakpointException;
+
+/**
+ * Translates straight-line code starting at a given address into a block of specialised operations.
+ * The common loads, stores, arithmetic and jumps with simple or immediate addressing get their own
+ * operation with all the decoding already done, everything else falls back to the interpreter.
+ * Frequent instruction sequences are fused into a single operation.
+ * Compiled code does not track last read/written memory spans.
+ *
+ * This is a closure-threaded interpreter: every operation is a lambda called through the megamorphic call site
+ * in Machine.executeBlock. It saves the fetch, decode and dispatch of each instruction, but every operation still
+ * costs an indirect call. Hot blocks are therefore replaced by generated bytecode, see BlockGenerator.
+ */
+class BlockCompiler {
+
+    static final int MAX_BLOCK_LENGTH = 32;
+    static final int MAX_BLOCK_BYTES = 4 * MAX_BLOCK_LENGTH;
+
+    private final Machine machine;
+
+    BlockCompiler(Machine machine) {
+        this.machine = machine;
+    }
+
+    /**
+     * Compile the block starting at the given address.
+     * Returns null if the first instruction cannot be compiled.
+     */
+    Block compile(int start) {
+        DecodedInstruction[] instructions = new DecodedInstruction[MAX_BLOCK_LENGTH];
+        int[] addresses = new int[MAX_BLOCK_LENGTH];
+        int count = 0;
+        int address = start;
+        boolean terminated = false;
+        while (count < MAX_BLOCK_LENGTH) {
+            DecodedInstruction instruction = machine.instructionCache.get(address);
+            if (instruction == null) {
+                instruction = machine.decodeToCache(address);
+                if (instruction == null) break;
+                machine.instructionCache.put(address, instruction);
+            }
+            addresses[count] = address;
+            instructions[count++] = instruction;
+            address += instruction.size;
+            if (isTerminator(instruction)) {
+                terminated = true;
+                break;
+            }
+        }
+        if (count == 0) return null;
+        Block.Op[] ops = new Block.Op[count];
+        int[] widths = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i += widths[length++]) {
+            DecodedInstruction instruction = instructions[i];
+            int next = i + 1 < count ? addresses[i + 1] : address;
+            Block.Op op = null;
+            if (i + 2 < count) {
+                op = fuseAccumulate(instruction, instructions[i + 1], instructions[i + 2]);
+                widths[length] = 3;
+            }
+            if (op == null && i + 1 < count) {
+                int after = i + 2 < count ? addresses[i + 2] : address;
+                op = fuseCompareJump(instruction, instructions[i + 1], after);
+                if (op == null) op = fuseOutput(instruction, instructions[i + 1], after);
+                widths[length] = 2;
+            }
+            if (op == null) {
+                op = compile(instruction, next);
+                widths[length] = 1;
+            }
+            ops[length] = op;
+        }
+        Block.Op[] blockOps = new Block.Op[length];
+        int[] blockWidths = new int[length];
+        int[] blockAddresses = new int[count];
+        DecodedInstruction[] blockInstructions = new DecodedInstruction[count];
+        System.arraycopy(ops, 0, blockOps, 0, length);
+        System.arraycopy(widths, 0, blockWidths, 0, length);
+        System.arraycopy(addresses, 0, blockAddresses, 0, count);
+        System.arraycopy(instructions, 0, blockInstructions, 0, count);
+        return new Block(start, address, blockOps, blockWidths, blockAddresses, blockInstructions, terminated);
+    }
+
+    static boolean isTerminator(DecodedInstruction instruction) {
+        if (instruction.format != DecodedInstruction.F3) return false;
+        switch (instruction.opcode & 0xFC) {
+            case Opcode.J: case Opcode.JEQ: case Opcode.JGT: case Opcode.JLT:
+            case Opcode.JSUB: case Opcode.RSUB:
+            case Opcode.RD: case Opcode.WD: case Opcode.TD:
+                return true;
+        }
+        return false;
+    }
+
+    // target address of simple addressing
+    private static int address(Registers r, int operand, boolean base, boolean indexed) {
+        if (base) operand += r.getB();
+        if (indexed) operand += r.getXs();
+        return operand;
+    }
+
+    private static Block.Op interpreted(DecodedInstruction instruction, int next) {
+        return m -> {
+            m.registers.setPC(next);
+            m.exec(instruction);
+        };
+    }
+
+    private Block.Op compile(DecodedInstruction instruction, int next) {
+        switch (instruction.format) {
+            case DecodedInstruction.F2:
+                return compileF2(instruction, next);
+            case DecodedInstruction.F3:
+                return compileF3(instruction, next);
+        }
+        return interpreted(instruction, next);
+    }
+
+    private Block.Op compileF2(DecodedInstruction instruction, int next) {
+        int r1 = (instruction.operand & 0xF0) >> 4;
+        int r2 = instruction.operand & 0x0F;
+        switch (instruction.opcode) {
+            case Opcode.ADDR:   return m -> m.registers.set(r2, m.registers.get(r2) + m.registers.get(r1));
+            case Opcode.SUBR:   return m -> m.registers.set(r2, m.registers.get(r2) - m.registers.get(r1));
+            case Opcode.COMPR:  return m -> m.registers.setSWAfterCompare(m.registers.gets(r1) - m.registers.gets(r2));
+            case Opcode.RMO:    return m -> m.registers.set(r2, m.registers.get(r1));
+            case Opcode.CLEAR:  return m -> m.registers.set(r1, 0);
+            case Opcode.TIXR:   return m -> {
+                                    Registers r = m.registers;
+                                    r.setX(r.getX() + 1);
+                                    r.setSWAfterCompare(r.getXs() - r.gets(r1));
+                                };
+        }
+        return interpreted(instruction, next);
+    }
+
+    private Block.Op compileF3(DecodedInstruction instruction, int next) {
+        Flags flags = instruction.flags;
+        if (flags.isIndirect()) return interpreted(instruction, next);
+        boolean immediate = flags.isImmediate();
+        if (immediate && instruction.baseRelative) return interpreted(instruction, next);
+        int op = instruction.operand;
+        boolean base = instruction.baseRelative;
+        boolean idx = instruction.indexed;
+        switch (instruction.opcode & 0xFC) {
+            // loads
+            case Opcode.LDA:
+                if (immediate) return m -> m.registers.setA(op);
+                return m -> m.registers.setA(m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.LDX:
+                if (immediate) return m -> m.registers.setX(op);
+                return m -> m.registers.setX(m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.LDL:
+                if (immediate) return m -> m.registers.setL(op);
+                return m -> m.registers.setL(m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.LDB:
+                if (immediate) return m -> m.registers.setB(op);
+                return m -> m.registers.setB(m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.LDS:
+                if (immediate) return m -> m.registers.setS(op);
+                return m -> m.registers.setS(m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.LDT:
+                if (immediate) return m -> m.registers.setT(op);
+                return m -> m.registers.setT(m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.LDCH:
+                if (immediate) return m -> m.registers.setALo(op);
+                return m -> m.registers.setALo(m.memory.getByte(address(m.registers, op, base, idx)));
+            // stores: immediate addressing stores to the operand address, as in the interpreter
+            case Opcode.STA:    return m -> m.memory.setWord(address(m.registers, op, base, idx), m.registers.getA());
+            case Opcode.STX:    return m -> m.memory.setWord(address(m.registers, op, base, idx), m.registers.getX());
+            case Opcode.STL:    return m -> m.memory.setWord(address(m.registers, op, base, idx), m.registers.getL());
+            case Opcode.STB:    return m -> m.memory.setWord(address(m.registers, op, base, idx), m.registers.getB());
+            case Opcode.STS:    return m -> m.memory.setWord(address(m.registers, op, base, idx), m.registers.getS());
+            case Opcode.STT:    return m -> m.memory.setWord(address(m.registers, op, base, idx), m.registers.getT());
+            case Opcode.STCH:   return m -> m.memory.setByte(address(m.registers, op, base, idx), m.registers.getA());
+            // arithmetic
+            case Opcode.ADD:
+                if (immediate) return m -> m.registers.setA(m.registers.getA() + op);
+                return m -> m.registers.setA(m.registers.getA() + m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.SUB:
+                if (immediate) return m -> m.registers.setA(m.registers.getA() - op);
+                return m -> m.registers.setA(m.registers.getA() - m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.MUL:
+                if (immediate) return m -> m.registers.setA(m.registers.getA() * op);
+                return m -> m.registers.setA(m.registers.getA() * m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.AND:
+                if (immediate) return m -> m.registers.setA(m.registers.getA() & op);
+                return m -> m.registers.setA(m.registers.getA() & m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.OR:
+                if (immediate) return m -> m.registers.setA(m.registers.getA() | op);
+                return m -> m.registers.setA(m.registers.getA() | m.memory.getWord(address(m.registers, op, base, idx)));
+            case Opcode.COMP:
+                if (immediate) {
+                    int value = SICXE.swordToInt(op);
+                    return m -> m.registers.setSWAfterCompare(m.registers.getAs() - value);
+                }
+                return m -> m.registers.setSWAfterCompare(m.registers.getAs()
+                        - SICXE.swordToInt(m.memory.getWord(address(m.registers, op, base, idx))));
+            case Opcode.TIX:
+                if (immediate) {
+                    int value = SICXE.swordToInt(op);
+                    return m -> {
+                        m.registers.setX(m.registers.getX() + 1);
+                        m.registers.setSWAfterCompare(m.registers.getXs() - value);
+                    };
+                }
+                return m -> {
+                    // the address is taken with X before the increment, as in the interpreter
+                    int value = SICXE.swordToInt(m.memory.getWord(address(m.registers, op, base, idx)));
+                    m.registers.setX(m.registers.getX() + 1);
+                    m.registers.setSWAfterCompare(m.registers.getXs() - value);
+                };
+            // jumps
+            case Opcode.J:
+                return m -> m.registers.setPC(address(m.registers, op, base, idx));
+            case Opcode.JEQ:
+                return m -> m.registers.setPC(m.registers.isEqual() ? address(m.registers, op, base, idx) : next);
+            case Opcode.JGT:
+                return m -> m.registers.setPC(m.registers.isGreater() ? address(m.registers, op, base, idx) : next);
+            case Opcode.JLT:
+                return m -> m.registers.setPC(m.registers.isLower() ? address(m.registers, op, base, idx) : next);
+        }
+        return interpreted(instruction, next);
+    }
+
+    // ********** superinstructions
+    // Fused operations run a frequent sequence of instructions as one operation. Only the last instruction
+    // of a sequence may write memory, so self-modifying code is still caught after it. If a later instruction
+    // triggers a data breakpoint or makes an invalid access, machine.faultStep tells which one it was;
+    // an operation stops after an invalid access, as the interpreter does.
+
+    // instruction with simple or immediate addressing that compileF3 would specialise
+    private static boolean plain(DecodedInstruction instruction) {
+        if (instruction.format != DecodedInstruction.F3) return false;
+        Flags flags = instruction.flags;
+        return !flags.isIndirect() && !(flags.isImmediate() && instruction.baseRelative);
+    }
+
+    private static boolean is(DecodedInstruction instruction, int opcode) {
+        return (instruction.opcode & 0xFC) == opcode;
+    }
+
+    private static boolean isConditionalJump(DecodedInstruction instruction) {
+        return plain(instruction) && (is(instruction, Opcode.JEQ) || is(instruction, Opcode.JGT) || is(instruction, Opcode.JLT));
+    }
+
+    private static boolean taken(Registers r, int jump) {
+        switch (jump) {
+            case Opcode.JEQ:    return r.isEqual();
+            case Opcode.JGT:    return r.isGreater();
+            default:            return r.isLower();
+        }
+    }
+
+    private static boolean faulted(Machine m) {
+        return m.invalidAccess || m.memory.invalidAccess;
+    }
+
+    // word operand of a plain instruction
+    private static int word(Machine m, int operand, boolean immediate, boolean base, boolean idx) throws DataBreakpointException {
+        return immediate ? operand : m.memory.getWord(address(m.registers, operand, base, idx));
+    }
+
+    /**
+     * TIXR, COMPR, COMP or TIX followed by a conditional jump, i.e. a loop back-edge.
+     * Only the compare may trigger a data breakpoint or make an invalid access.
+     */
+    private Block.Op fuseCompareJump(DecodedInstruction compare, DecodedInstruction jump, int next) {
+        if (!isConditionalJump(jump)) return null;
+        int condition = jump.opcode & 0xFC;
+        int target = jump.operand;
+        boolean targetBase = jump.baseRelative;
+        boolean targetIdx = jump.indexed;
+        if (compare.format == DecodedInstruction.F2) {
+            int r1 = (compare.operand & 0xF0) >> 4;
+            int r2 = compare.operand & 0x0F;
+            switch (compare.opcode) {
+                case Opcode.TIXR:   return m -> {
+                                        Registers r = m.registers;
+                                        r.setX(r.getX() + 1);
+                                        r.setSWAfterCompare(r.getXs() - r.gets(r1));
+                                        r.setPC(taken(r, condition) ? address(r, target, targetBase, targetIdx) : next);
+                                    };
+                case Opcode.COMPR:  return m -> {
+                                        Registers r = m.registers;
+                                        r.setSWAfterCompare(r.gets(r1) - r.gets(r2));
+                                        r.setPC(taken(r, condition) ? address(r, target, targetBase, targetIdx) : next);
+                                    };
+            }
+            return null;
+        }
+        if (!plain(compare)) return null;
+        int op = compare.operand;
+        boolean immediate = compare.flags.isImmediate();
+        boolean base = compare.baseRelative;
+        boolean idx = compare.indexed;
+        if (is(compare, Opcode.COMP))
+            return m -> {
+                Registers r = m.registers;
+                r.setSWAfterCompare(r.getAs() - SICXE.swordToInt(word(m, op, immediate, base, idx)));
+                if (faulted(m)) return;
+                r.setPC(taken(r, condition) ? address(r, target, targetBase, targetIdx) : next);
+            };
+        if (is(compare, Opcode.TIX))
+            return m -> {
+                Registers r = m.registers;
+                int value = word(m, op, immediate, base, idx);
+                r.setX(r.getX() + 1);
+                r.setSWAfterCompare(r.getXs() - SICXE.swordToInt(value));
+                if (faulted(m)) return;
+                r.setPC(taken(r, condition) ? address(r, target, targetBase, targetIdx) : next);
+            };
+        return null;
+    }
+
+    /**
+     * LDA, ADD or SUB, STA: the usual way to update a variable.
+     */
+    private Block.Op fuseAccumulate(DecodedInstruction load, DecodedInstruction arith, DecodedInstruction store) {
+        if (!plain(load) || !plain(arith) || !plain(store)) return null;
+        if (!is(load, Opcode.LDA) || !is(store, Opcode.STA)) return null;
+        boolean add = is(arith, Opcode.ADD);
+        if (!add && !is(arith, Opcode.SUB)) return null;
+        int op1 = load.operand, op2 = arith.operand, op3 = store.operand;
+        boolean imm1 = load.flags.isImmediate(), imm2 = arith.flags.isImmediate();
+        boolean base1 = load.baseRelative, base2 = arith.baseRelative, base3 = store.baseRelative;
+        boolean idx1 = load.indexed, idx2 = arith.indexed, idx3 = store.indexed;
+        return m -> {
+            Registers r = m.registers;
+            r.setA(word(m, op1, imm1, base1, idx1));
+            if (faulted(m)) return;
+            try {
+                int value = word(m, op2, imm2, base2, idx2);
+                r.setA(add ? r.getA() + value : r.getA() - value);
+            } catch (DataBreakpointException e) {
+                m.faultStep = 1;
+                throw e;
+            }
+            if (faulted(m)) {
+                m.faultStep = 1;
+                return;
+            }
+            try {
+                m.memory.setWord(address(r, op3, base3, idx3), r.getA());
+            } catch (DataBreakpointException e) {
+                m.faultStep = 2;
+                throw e;
+            }
+            if (faulted(m)) m.faultStep = 2;
+        };
+    }
+
+    /**
+     * LDCH followed by WD: print a character.
+     */
+    private Block.Op fuseOutput(DecodedInstruction load, DecodedInstruction write, int next) {
+        if (!plain(load) || !plain(write) || !is(load, Opcode.LDCH) || !is(write, Opcode.WD)) return null;
+        int op1 = load.operand, op2 = write.operand;
+        boolean imm1 = load.flags.isImmediate(), imm2 = write.flags.isImmediate();
+        boolean base1 = load.baseRelative, base2 = write.baseRelative;
+        boolean idx1 = load.indexed, idx2 = write.indexed;
+        return m -> {
+            Registers r = m.registers;
+            r.setALo(imm1 ? op1 : m.memory.getByte(address(r, op1, base1, idx1)));
+            if (faulted(m)) return;
+            r.setPC(next);
+            int device;
+            try {
+                device = imm2 ? op2 : m.memory.getByte(address(r, op2, base2, idx2));
+            } catch (DataBreakpointException e) {
+                m.faultStep = 1;
+                throw e;
+            }
+            if (faulted(m)) m.faultStep = 1;
+            m.devices.write(device, r.getALo());
+        };
+    }
+
+}
@@ -0,0 +1,552 @@
+package sic.sim.vm;
+
+import sic.common.Flags;
+import sic.common.Opcode;
+import sic.common.SICXE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Generates JVM bytecode for a hot block, see Block.Code: one hidden class per block whose exec method
+ * runs all instructions of the block straight-line, with registers and memory accessed through the same
+ * methods the interpreter uses, so that the JIT compiles each block as one method instead of a chain of calls.
+ *
+ * Plain loads, stores, arithmetic, compares and jumps are generated, everything else calls the interpreter.
+ * After an instruction that may write memory the block is left if it was invalidated, after one that
+ * accesses memory if the access was invalid. A data breakpoint sets machine.faultStep to the instruction
+ * that triggered it before it reaches executeBlock.
+ *
+ * The class file is written in version 49, which the JVM verifies without stack map frames.
+ */
+class BlockGenerator {
+
+    // constant pool tags
+    private static final int UTF8 = 1, INTEGER = 3, CLASS = 7, FIELD = 9, METHOD = 10,
+            NAME_AND_TYPE = 12;
+
+    // instructions
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD_3 = 0x1d,
+            ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ALOAD_3 = 0x2d, AALOAD = 0x32, ISTORE_3 = 0x3e,
+            ASTORE_3 = 0x4e, IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IAND = 0x7e, IOR = 0x80, IFEQ = 0x99,
+            IFNE = 0x9a, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1, GETFIELD = 0xb4, PUTFIELD = 0xb5,
+            INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, ATHROW = 0xbf;
+
+    private static final String MACHINE = "sic/sim/vm/Machine";
+    private static final String REGISTERS = "sic/sim/vm/Registers";
+    private static final String MEMORY = "sic/sim/vm/Memory";
+    private static final String BLOCK = "sic/sim/vm/Block";
+    private static final String NAME = "sic/sim/vm/BlockCode";
+
+    static final int HOT_RUNS = 1000;      // executions of a block before its code is generated, a class costs about as much
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    // constant pool of the class being generated
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final HashMap<String, Integer> constants = new HashMap<>();
+    private int poolCount;
+
+    // code of exec
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final ArrayList<int[]> exits = new ArrayList<>();       // branch position and instruction count
+    private final ArrayList<int[]> handlers = new ArrayList<>();    // start, end and instruction index
+
+    /**
+     * Generate and load the code of the block.
+     * @return null if the class could not be defined
+     */
+    Block.Code generate(Block block) {
+        try {
+            byte[] bytes = classFile(block);
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+            return (Block.Code) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    // ********** class file
+
+    private byte[] classFile(Block block) throws IOException {
+        pool.reset();
+        constants.clear();
+        poolCount = 1;
+        int thisClass = classRef(NAME);
+        int superClass = classRef("java/lang/Object");
+        int codeInterface = classRef(BLOCK + "$Code");
+        int codeName = utf8("Code");
+        int initName = utf8("<init>");
+        int initType = utf8("()V");
+        int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+        int execName = utf8("exec");
+        int execType = utf8("(L" + MACHINE + ";L" + BLOCK + ";)I");
+        byte[] exec = exec(block);
+        int exceptionClass = classRef("sic/sim/breakpoints/DataBreakpointException");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(poolCount);
+        pool.writeTo(out);
+        out.writeShort(0x0030);         // final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(codeInterface);
+        out.writeShort(0);              // fields
+        out.writeShort(2);              // methods
+        // constructor
+        out.writeShort(0x0001);
+        out.writeShort(initName);
+        out.writeShort(initType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + 5);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(objectInit);
+        out.writeByte(RETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+        // exec
+        out.writeShort(0x0001);
+        out.writeShort(execName);
+        out.writeShort(execType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + exec.length + 8 * handlers.size());
+        out.writeShort(8);              // max stack, the deepest is a register set with an address of three terms
+        out.writeShort(4);              // this, machine, block and a temporary
+        out.writeInt(exec.length);
+        out.write(exec);
+        out.writeShort(handlers.size());
+        for (int[] handler : handlers) {
+            out.writeShort(handler[0]);
+            out.writeShort(handler[1]);
+            out.writeShort(handler[2]);
+            out.writeShort(exceptionClass);
+        }
+        out.writeShort(0);
+        out.writeShort(0);              // class attributes
+        return bytes.toByteArray();
+    }
+
+    private int constant(String key, int tag, int a, int b, String utf) throws IOException {
+        Integer index = constants.get(key);
+        if (index != null) return index;
+        poolOut.writeByte(tag);
+        switch (tag) {
+            case UTF8:      poolOut.writeUTF(utf); break;
+            case INTEGER:   poolOut.writeInt(a); break;
+            case CLASS:     poolOut.writeShort(a); break;
+            default:        poolOut.writeShort(a); poolOut.writeShort(b); break;
+        }
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int utf8(String s) throws IOException {
+        return constant("U" + s, UTF8, 0, 0, s);
+    }
+
+    private int integer(int value) throws IOException {
+        return constant("I" + value, INTEGER, value, 0, null);
+    }
+
+    private int classRef(String name) throws IOException {
+        return constant("C" + name, CLASS, utf8(name), 0, null);
+    }
+
+    private int member(int tag, String owner, String name, String type) throws IOException {
+        int nameAndType = constant("N" + name + " " + type, NAME_AND_TYPE, utf8(name), utf8(type), null);
+        return constant(tag + owner + "." + name + " " + type, tag, classRef(owner), nameAndType, null);
+    }
+
+    private int methodRef(String owner, String name, String type) throws IOException {
+        return member(METHOD, owner, name, type);
+    }
+
+    // ********** code
+
+    private void op(int opcode) {
+        code.write(opcode);
+    }
+
+    private void u2(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private void push(int value) throws IOException {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            op(BIPUSH);
+            code.write(value);
+        } else if (value == (short) value) {
+            op(SIPUSH);
+            u2(value);
+        } else {
+            op(LDC_W);
+            u2(integer(value));
+        }
+    }
+
+    private void field(int opcode, String owner, String name, String type) throws IOException {
+        op(opcode);
+        u2(member(FIELD, owner, name, type));
+    }
+
+    private void registers() throws IOException {
+        op(ALOAD_1);
+        field(GETFIELD, MACHINE, "registers", "L" + REGISTERS + ";");
+    }
+
+    private void memory() throws IOException {
+        op(ALOAD_1);
+        field(GETFIELD, MACHINE, "memory", "L" + MEMORY + ";");
+    }
+
+    private void call(String owner, String name, String type) throws IOException {
+        op(INVOKEVIRTUAL);
+        u2(methodRef(owner, name, type));
+    }
+
+    // registers.name(), leaves the value
+    private void get(String name) throws IOException {
+        registers();
+        call(REGISTERS, name, "()I");
+    }
+
+    // value on the stack must be below: registers, value, then set
+    private void set(String name) throws IOException {
+        call(REGISTERS, name, "(I)V");
+    }
+
+    private void swordToInt() throws IOException {
+        op(INVOKESTATIC);
+        u2(methodRef("sic/common/SICXE", "swordToInt", "(I)I"));
+    }
+
+    // target address of simple addressing, see BlockCompiler.address
+    private void address(DecodedInstruction instruction) throws IOException {
+        push(instruction.operand);
+        if (instruction.baseRelative) {
+            get("getB");
+            op(IADD);
+        }
+        if (instruction.indexed) {
+            get("getXs");
+            op(IADD);
+        }
+    }
+
+    // word operand of a plain instruction
+    private void word(DecodedInstruction instruction) throws IOException {
+        if (instruction.flags.isImmediate()) {
+            push(instruction.operand);
+            return;
+        }
+        memory();
+        address(instruction);
+        call(MEMORY, "getWord", "(I)I");
+    }
+
+    // leave the block with the given number of executed instructions if the value on the stack is not zero
+    private void exitIf(int opcode, int count) {
+        exits.add(new int[] {code.size(), count});
+        op(opcode);
+        u2(0);
+    }
+
+    private byte[] exec(Block block) throws IOException {
+        code.reset();
+        exits.clear();
+        handlers.clear();
+        DecodedInstruction[] instructions = block.instructions;
+        int length = instructions.length;
+        for (int i = 0; i < length; i++) {
+            DecodedInstruction instruction = instructions[i];
+            int next = block.next(i + 1);
+            int start = code.size();
+            int kind = instruction(instruction, i, next);
+            if (kind != REGISTERS_ONLY) handlers.add(new int[] {start, code.size(), i});
+            if (i == length - 1) break;
+            if (kind != REGISTERS_ONLY) {
+                op(ALOAD_1);
+                field(GETFIELD, MACHINE, "invalidAccess", "Z");
+                exitIf(IFNE, i + 1);
+                memory();
+                field(GETFIELD, MEMORY, "invalidAccess", "Z");
+                exitIf(IFNE, i + 1);
+            }
+            if (kind == WRITES) {
+                // self-modifying code
+                op(ALOAD_2);
+                field(GETFIELD, BLOCK, "valid", "Z");
+                exitIf(IFEQ, i + 1);
+            }
+        }
+        push(length);
+        op(IRETURN);
+        // exits, one per count
+        HashMap<Integer, Integer> returns = new HashMap<>();
+        for (int[] exit : exits) {
+            Integer target = returns.get(exit[1]);
+            if (target == null) {
+                target = code.size();
+                returns.put(exit[1], target);
+                push(exit[1]);
+                op(IRETURN);
+            }
+            exit[1] = target;
+        }
+        // data breakpoint handlers, for the instructions in handlers[2]
+        for (int[] handler : handlers) {
+            int index = handler[2];
+            handler[2] = code.size();
+            op(ASTORE_3);
+            op(ALOAD_1);
+            push(index);
+            field(PUTFIELD, MACHINE, "faultStep", "I");
+            op(ALOAD_3);
+            op(ATHROW);
+        }
+        byte[] bytes = code.toByteArray();
+        for (int[] exit : exits) {
+            int offset = exit[1] - exit[0];
+            bytes[exit[0] + 1] = (byte) (offset >> 8);
+            bytes[exit[0] + 2] = (byte) offset;
+        }
+        return bytes;
+    }
+
+    private static final int REGISTERS_ONLY = 0, READS = 1, WRITES = 2;
+
+    // generate one instruction, PC is set only by jumps and interpreted instructions
+    private int instruction(DecodedInstruction instruction, int index, int next) throws IOException {
+        if (instruction.format == DecodedInstruction.F2 && f2(instruction)) return REGISTERS_ONLY;
+        if (instruction.format == DecodedInstruction.F3) {
+            int kind = f3(instruction, next);
+            if (kind >= 0) return kind;
+        }
+        // interpreted, see BlockCompiler.interpreted
+        registers();
+        push(next);
+        set("setPC");
+        op(ALOAD_1);
+        op(ALOAD_2);
+        field(GETFIELD, BLOCK, "instructions", "[Lsic/sim/vm/DecodedInstruction;");
+        push(index);
+        op(AALOAD);
+        call(MACHINE, "exec", "(Lsic/sim/vm/DecodedInstruction;)V");
+        return WRITES;
+    }
+
+    private boolean f2(DecodedInstruction instruction) throws IOException {
+        int r1 = (instruction.operand & 0xF0) >> 4;
+        int r2 = instruction.operand & 0x0F;
+        switch (instruction.opcode) {
+            case Opcode.ADDR:
+            case Opcode.SUBR:
+                registers();
+                push(r2);
+                registers();
+                push(r2);
+                call(REGISTERS, "get", "(I)I");
+                registers();
+                push(r1);
+                call(REGISTERS, "get", "(I)I");
+                op(instruction.opcode == Opcode.ADDR ? IADD : ISUB);
+                call(REGISTERS, "set", "(II)V");
+                return true;
+            case Opcode.COMPR:
+                registers();
+                registers();
+                push(r1);
+                call(REGISTERS, "gets", "(I)I");
+                registers();
+                push(r2);
+                call(REGISTERS, "gets", "(I)I");
+                op(ISUB);
+                set("setSWAfterCompare");
+                return true;
+            case Opcode.RMO:
+                registers();
+                push(r2);
+                registers();
+                push(r1);
+                call(REGISTERS, "get", "(I)I");
+                call(REGISTERS, "set", "(II)V");
+                return true;
+            case Opcode.CLEAR:
+                registers();
+                push(r1);
+                push(0);
+                call(REGISTERS, "set", "(II)V");
+                return true;
+            case Opcode.TIXR:
+                increment();
+                registers();
+                get("getXs");
+                registers();
+                push(r1);
+                call(REGISTERS, "gets", "(I)I");
+                op(ISUB);
+                set("setSWAfterCompare");
+                return true;
+        }
+        return false;
+    }
+
+    private void increment() throws IOException {
+        registers();
+        get("getX");
+        push(1);
+        op(IADD);
+        set("setX");
+    }
+
+    // kind of the generated instruction, -1 if it is left to the interpreter
+    private int f3(DecodedInstruction instruction, int next) throws IOException {
+        Flags flags = instruction.flags;
+        boolean immediate = flags.isImmediate();
+        if (flags.isIndirect() || immediate && instruction.baseRelative) return -1;
+        int kind = immediate ? REGISTERS_ONLY : READS;
+        switch (instruction.opcode & 0xFC) {
+            case Opcode.LDA:    return load(instruction, "setA");
+            case Opcode.LDX:    return load(instruction, "setX");
+            case Opcode.LDL:    return load(instruction, "setL");
+            case Opcode.LDB:    return load(instruction, "setB");
+            case Opcode.LDS:    return load(instruction, "setS");
+            case Opcode.LDT:    return load(instruction, "setT");
+            case Opcode.LDCH:
+                registers();
+                if (immediate) {
+                    push(instruction.operand);
+                } else {
+                    memory();
+                    address(instruction);
+                    call(MEMORY, "getByte", "(I)I");
+                }
+                set("setALo");
+                return kind;
+            // stores: immediate addressing stores to the operand address, as in the interpreter
+            case Opcode.STA:    return store(instruction, "getA", "setWord");
+            case Opcode.STX:    return store(instruction, "getX", "setWord");
+            case Opcode.STL:    return store(instruction, "getL", "setWord");
+            case Opcode.STB:    return store(instruction, "getB", "setWord");
+            case Opcode.STS:    return store(instruction, "getS", "setWord");
+            case Opcode.STT:    return store(instruction, "getT", "setWord");
+            case Opcode.STCH:   return store(instruction, "getA", "setByte");
+            case Opcode.ADD:    return arithmetic(instruction, IADD);
+            case Opcode.SUB:    return arithmetic(instruction, ISUB);
+            case Opcode.MUL:    return arithmetic(instruction, IMUL);
+            case Opcode.AND:    return arithmetic(instruction, IAND);
+            case Opcode.OR:     return arithmetic(instruction, IOR);
+            case Opcode.COMP:
+                registers();
+                get("getAs");
+                if (immediate) {
+                    push(SICXE.swordToInt(instruction.operand));
+                } else {
+                    word(instruction);
+                    swordToInt();
+                }
+                op(ISUB);
+                set("setSWAfterCompare");
+                return kind;
+            case Opcode.TIX:
+                // the address is taken with X before the increment, as in the interpreter
+                if (immediate) {
+                    push(SICXE.swordToInt(instruction.operand));
+                } else {
+                    word(instruction);
+                    swordToInt();
+                }
+                op(ISTORE_3);
+                increment();
+                registers();
+                get("getXs");
+                op(ILOAD_3);
+                op(ISUB);
+                set("setSWAfterCompare");
+                return kind;
+            case Opcode.J:
+                registers();
+                address(instruction);
+                set("setPC");
+                return REGISTERS_ONLY;
+            case Opcode.JEQ:    return jump(instruction, "isEqual", next);
+            case Opcode.JGT:    return jump(instruction, "isGreater", next);
+            case Opcode.JLT:    return jump(instruction, "isLower", next);
+        }
+        return -1;
+    }
+
+    private int load(DecodedInstruction instruction, String setter) throws IOException {
+        registers();
+        word(instruction);
+        set(setter);
+        return instruction.flags.isImmediate() ? REGISTERS_ONLY : READS;
+    }
+
+    private int store(DecodedInstruction instruction, String getter, String setter) throws IOException {
+        memory();
+        address(instruction);
+        get(getter);
+        call(MEMORY, setter, "(II)V");
+        return WRITES;
+    }
+
+    private int arithmetic(DecodedInstruction instruction, int opcode) throws IOException {
+        registers();
+        get("getA");
+        word(instruction);
+        op(opcode);
+        set("setA");
+        return instruction.flags.isImmediate() ? REGISTERS_ONLY : READS;
+    }
+
+    private int jump(DecodedInstruction instruction, String condition, int next) throws IOException {
+        registers();
+        registers();
+        call(REGISTERS, condition, "()Z");
+        int branch = code.size();
+        op(IFEQ);
+        u2(0);
+        address(instruction);
+        int skip = code.size();
+        op(GOTO);
+        u2(0);
+        int notTaken = code.size();
+        push(next);
+        int done = code.size();
+        patch(branch, notTaken);
+        patch(skip, done);
+        set("setPC");
+        return REGISTERS_ONLY;
+    }
+
+    private void patch(int branch, int target) {
+        byte[] bytes = code.toByteArray();
+        int offset = target - branch;
+        bytes[branch + 1] = (byte) (offset >> 8);
+        bytes[branch + 2] = (byte) offset;
+        code.reset();
+        code.write(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,62 @@
+package sic.sim.vm;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Device reading from a byte array and collecting written bytes in memory, for running without a console.
+ */
+public class ByteArrayDevice extends Device {
+
+    private final byte[] input;
+    private int position;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    public ByteArrayDevice(byte[] input) {
+        this.input = input;
+    }
+
+    public ByteArrayDevice() {
+        this(new byte[0]);
+    }
+
+    @Override
+    public int read() {
+        return position < input.length ? input[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public void write(int value) {
+        output.write(value);
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+        output.reset();
+    }
+
+    /**
+     * Bytes written so far.
+     */
+    public byte[] getOutput() {
+        return output.toByteArray();
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setPosition(long position) {
+        this.position = (int)Math.min(Math.max(position, 0), input.length);
+    }
+
+    @Override
+    public Device fork() {
+        ByteArrayDevice fork = new ByteArrayDevice(input);
+        fork.position = position;
+        return fork;
+    }
+
+}
@@ -0,0 +1,32 @@
+package sic.sim.vm;
+
+/**
+ * Machine state at some instruction count, see Machine.checkpoint and Machine.restore.
+ * Memory is a fork of the machine's memory, so a sparse machine shares all pages with its checkpoints
+ * and each checkpoint only costs the pages written after it.
+ */
+public class Checkpoint {
+
+    final long instructionCount;
+    final Registers registers;
+    final Memory memory;
+    final int[] addressBelowJSUB;
+    final long[] devicePositions;
+
+    Checkpoint(Machine machine) {
+        this.instructionCount = machine.instructionCount;
+        this.registers = machine.registers.copy();
+        this.memory = machine.memory.fork();
+        this.addressBelowJSUB = new int[machine.addressBelowJSUB.size()];
+        for (int i = 0; i < addressBelowJSUB.length; i++)
+            addressBelowJSUB[i] = machine.addressBelowJSUB.get(i);
+        this.devicePositions = new long[machine.devices.count()];
+        for (int i = 0; i < devicePositions.length; i++)
+            devicePositions[i] = machine.devices.getDevice(i).getPosition();
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+}
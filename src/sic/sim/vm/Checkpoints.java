@@ -0,0 +1,83 @@
+package sic.sim.vm;
+
+import java.util.ArrayList;
+
+/**
+ * Checkpoints taken every so many instructions along one execution.
+ * When there are too many, every other one is dropped and the interval doubles,
+ * so memory stays bounded and any instruction is at most one interval of replay away.
+ */
+public class Checkpoints {
+
+    private final ArrayList<Checkpoint> list = new ArrayList<>();
+    private final int initialInterval;
+    private final int limit;
+    private int interval;
+
+    /**
+     * @param interval instructions between checkpoints
+     * @param limit number of checkpoints kept
+     */
+    public Checkpoints(int interval, int limit) {
+        this.initialInterval = Math.max(interval, 1);
+        this.interval = initialInterval;
+        this.limit = Math.max(limit, 2);
+    }
+
+    public int size() {
+        return list.size();
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Number of instructions the machine can execute before the next checkpoint is due.
+     */
+    public int remaining(Machine machine) {
+        if (list.isEmpty()) return 0;
+        return (int) Math.max(interval - (machine.getInstructionCount() - last().instructionCount), 0);
+    }
+
+    /**
+     * Take a checkpoint if one is due.
+     */
+    public void update(Machine machine) {
+        if (!list.isEmpty() && remaining(machine) > 0) return;
+        list.add(machine.checkpoint());
+        if (list.size() <= limit) return;
+        // keep the first one and every other after it
+        for (int i = 1, j = 2; j < list.size(); i++, j += 2)
+            list.set(i, list.get(j));
+        while (list.size() > (limit + 2) / 2) list.remove(list.size() - 1);
+        interval *= 2;
+    }
+
+    /**
+     * The latest checkpoint at or before the given instruction count, null if none.
+     */
+    public Checkpoint before(long instructionCount) {
+        for (int i = list.size() - 1; i >= 0; i--)
+            if (list.get(i).instructionCount <= instructionCount) return list.get(i);
+        return null;
+    }
+
+    /**
+     * Drop the checkpoints after the given one, e.g. when the machine went back to it.
+     */
+    public void truncate(Checkpoint checkpoint) {
+        int i = list.indexOf(checkpoint);
+        while (list.size() > i + 1) list.remove(list.size() - 1);
+    }
+
+    public void clear() {
+        list.clear();
+        interval = initialInterval;
+    }
+
+    private Checkpoint last() {
+        return list.get(list.size() - 1);
+    }
+
+}
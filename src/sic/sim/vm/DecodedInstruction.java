@@ -0,0 +1,43 @@
+package sic.sim.vm;
+
+import sic.common.Flags;
+
+/**
+ * Instruction decoded once and reused on every following execution at the same address.
+ * Only the parts that do not depend on the register state are resolved,
+ * i.e. PC-relative displacements are already added, base and index registers are not.
+ */
+class DecodedInstruction {
+
+    static final int F1 = 1;
+    static final int F2 = 2;
+    static final int F3 = 3;        // also SIC and F4
+
+    final int opcode;               // first byte of the instruction (including ni bits)
+    final int format;
+    final int size;                 // size in bytes
+    final int operand;              // F2: register byte, F3/F4: (partially) resolved operand
+    final Flags flags;              // F3/F4 only
+    final boolean baseRelative;     // add B to the operand
+    final boolean indexed;          // add X to the operand
+    final boolean indirectX;        // add X after the indirection
+    final int handler;              // see Dispatch
+
+    DecodedInstruction(int opcode, int format, int size, int operand) {
+        this(opcode, format, size, operand, null, false, false, false);
+    }
+
+    DecodedInstruction(int opcode, int format, int size, int operand, Flags flags,
+                       boolean baseRelative, boolean indexed, boolean indirectX) {
+        this.opcode = opcode;
+        this.format = format;
+        this.size = size;
+        this.operand = operand;
+        this.flags = flags;
+        this.baseRelative = baseRelative;
+        this.indexed = indexed;
+        this.indirectX = indirectX;
+        this.handler = Dispatch.handler(format, opcode);
+    }
+
+}
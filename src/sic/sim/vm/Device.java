@@ -21,4 +21,21 @@ public class Device {
     public void reset() {
     }
 
+    /**
+     * Position within the underlying medium, saved in snapshots; -1 if the device has none.
+     */
+    public long getPosition() {
+        return -1;
+    }
+
+    public void setPosition(long position) {
+    }
+
+    /**
+     * Device with the same configuration and its own state, used by a forked machine.
+     */
+    public Device fork() {
+        return this;
+    }
+
 }
@@ -0,0 +1,278 @@
+package sic.sim.vm;
+
+import sic.common.Logger;
+
+import java.io.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Record or replay of everything the machine got from and gave to the outside world:
+ * results of device reads, writes and tests and keyboard writes into memory, each with its instruction count.
+ *
+ * While recording, devices are used as usual and their results are appended to the file.
+ * While replaying, the results are taken from the file and devices are not touched at all, so a run
+ * reproduces the recorded one exactly and never blocks on input. If the program does something else
+ * than it did when recorded, replay stops with an error and the real devices are used from then on.
+ *
+ * An entry is written as: instruction count, kind, then device and value, or address and value for a key.
+ * Repeated tests of a device with the same result, as in a polling loop, are written as one entry with a repeat
+ * count; only the instruction count of the first one is kept.
+ *
+ * When the machine goes back to a checkpoint, see rewind, the entries from there on are replayed again, also
+ * those this log has recorded itself: a recording log then resumes recording after its last entry, or where the
+ * program went another way, dropping the entries after that point.
+ */
+public class DeviceLog implements Closeable {
+
+    private static final int MAGIC = 0x53494344;      // "SICD"
+    private static final int VERSION = 2;          // 2 widened the instruction counts to longs
+
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+    private static final int TEST = 2;
+    private static final int KEY = 3;
+
+    private final Machine machine;
+    private final String filename;
+    private final FileOutputStream file;    // under out, cut when a replay of the recorded entries diverges
+    private final DataOutputStream out;
+    private DataInputStream in;
+    private int version;                // of the log being replayed
+    private boolean replaying;
+
+    // keys pressed on the GUI thread, applied between instructions
+    private final ConcurrentLinkedQueue<int[]> keys = new ConcurrentLinkedQueue<>();
+
+    // tests not written yet
+    private long testCount;
+    private int testDevice;
+    private int testValue;
+    private int tests;
+
+    // next entry to replay
+    private long count;
+    private int kind = -1;
+    private int target;
+    private int value;
+    private int repeats;                // remaining tests of a test entry
+    private int tested;                 // tests of the entry, with its first count in first
+    private long first;
+    private long entry;                 // file position of the entry
+    private long next;                  // and of the one after it
+
+    private DeviceLog(Machine machine, String filename, FileOutputStream file, DataOutputStream out) {
+        this.machine = machine;
+        this.filename = filename;
+        this.file = file;
+        this.out = out;
+    }
+
+    public static DeviceLog record(Machine machine, String filename) throws IOException {
+        FileOutputStream file = new FileOutputStream(filename);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        return new DeviceLog(machine, filename, file, out);
+    }
+
+    public static DeviceLog replay(Machine machine, String filename) throws IOException {
+        DeviceLog log = new DeviceLog(machine, filename, null, null);
+        log.open();
+        log.fetch();
+        return log;
+    }
+
+    public boolean isReplaying() {
+        return replaying;
+    }
+
+    // ********** recording *********************
+
+    private void append(int kind, int target, int value) {
+        if (out == null) return;
+        if (kind == TEST && tests > 0 && target == testDevice && value == testValue) {
+            tests++;
+            return;
+        }
+        try {
+            flushTests();
+            if (kind == TEST) {
+                testCount = machine.instructionCount;
+                testDevice = target;
+                testValue = value;
+                tests = 1;
+                return;
+            }
+            out.writeLong(machine.instructionCount);
+            out.writeByte(kind);
+            if (kind == KEY) out.writeInt(target);
+            else out.writeByte(target);
+            out.writeByte(value);
+        } catch (IOException e) {
+            Logger.fmterr("Cannot write device log '%s'.", filename);
+        }
+    }
+
+    private void flushTests() throws IOException {
+        if (tests == 0) return;
+        out.writeLong(testCount);
+        out.writeByte(TEST);
+        out.writeByte(testDevice);
+        out.writeByte(testValue);
+        out.writeInt(tests);
+        tests = 0;
+    }
+
+    // ********** replaying *********************
+
+    // start replaying from the first entry
+    private void open() throws IOException {
+        if (in != null) in.close();
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        version = in.readInt() != MAGIC ? 0 : in.readInt();
+        if (version < 1 || version > VERSION) {
+            in.close();
+            throw new IOException("Not a device log: " + filename);
+        }
+        next = 8;
+        replaying = true;
+    }
+
+    private void fetch() {
+        try {
+            entry = next;
+            // version 1 had int counts
+            count = version >= 2 ? in.readLong() : in.readInt();
+            kind = in.readUnsignedByte();
+            target = kind == KEY ? in.readInt() : in.readUnsignedByte();
+            value = in.readUnsignedByte();
+            repeats = kind == TEST ? in.readInt() : 1;
+            first = count;
+            tested = repeats;
+            next = entry + (version >= 2 ? 8 : 4) + 3 + (kind == KEY ? 3 : 0) + (kind == TEST ? 4 : 0);
+        } catch (EOFException e) {
+            kind = -1;
+            // replayed all that was recorded, record again
+            if (out != null) replaying = false;
+        } catch (IOException e) {
+            Logger.fmterr("Cannot read device log '%s'.", filename);
+            kind = -1;
+        }
+    }
+
+    /**
+     * Replay the entries from the given instruction count on, e.g. when the machine restores a checkpoint.
+     * Tests of a polling loop that was entered before the count cannot be told apart and are replayed
+     * from the next entry on, so such a replay may diverge at the first of them.
+     */
+    void rewind(long instructionCount) {
+        try {
+            if (out != null) {
+                flushTests();
+                out.flush();
+            }
+            open();
+            fetch();
+            // devices are used during an instruction, after it was counted, keys are pressed before it
+            while (kind >= 0 && (kind == KEY ? count < instructionCount : count <= instructionCount)) fetch();
+        } catch (IOException e) {
+            Logger.fmterr("Cannot read device log '%s'.", filename);
+            replaying = false;
+        }
+    }
+
+    // take the next entry if it is the expected one, otherwise give up replaying; written values are compared too
+    private boolean take(int kind, int target, int written) {
+        if (!replaying) return false;
+        if (this.kind != kind || this.target != target || count >= 0 && count != machine.instructionCount
+                || kind == WRITE && value != written) {
+            Logger.fmterr("Device replay diverged at instruction %d, using the devices.", machine.instructionCount);
+            replaying = false;
+            if (out != null) truncate();
+            return false;
+        }
+        if (--repeats > 0) {
+            // later tests of a run are not checked against the instruction count
+            count = -1;
+            return true;
+        }
+        fetch();
+        return true;
+    }
+
+    // drop the entries from the current one on, its tests replayed so far are written again
+    private void truncate() {
+        try {
+            in.close();
+            in = null;
+            file.getChannel().truncate(entry).position(entry);
+            if (this.kind == TEST && tested > repeats) {
+                testCount = first;
+                testDevice = target;
+                testValue = value;
+                tests = tested - repeats;
+            }
+        } catch (IOException e) {
+            Logger.fmterr("Cannot write device log '%s'.", filename);
+        }
+    }
+
+    // ********** hooks *********************
+
+    int read(int idx, Device device) {
+        int result = value;
+        if (take(READ, idx, 0)) return result;
+        result = device.read();
+        append(READ, idx, result < 0 || result > 255 ? 0 : result);
+        return result;
+    }
+
+    void write(int idx, Device device, int val) {
+        if (take(WRITE, idx, val)) return;
+        device.write(val);
+        append(WRITE, idx, val);
+    }
+
+    boolean test(int idx, Device device) {
+        boolean result = value != 0;
+        if (take(TEST, idx, 0)) return result;
+        result = device.test();
+        append(TEST, idx, result ? 1 : 0);
+        return result;
+    }
+
+    /**
+     * Called by the keyboard instead of writing the key into memory, from any thread.
+     * While replaying, keys are taken from the log only.
+     */
+    public void keyPressed(int address, int value) {
+        if (!replaying) keys.add(new int[] {address, value});
+    }
+
+    // called by the machine before each instruction
+    void beforeInstruction() {
+        int[] key;
+        while ((key = keys.poll()) != null) {
+            machine.memory.setByteRaw(key[0], key[1]);
+            append(KEY, key[0], key[1]);
+        }
+        while (replaying && kind == KEY && count == machine.instructionCount) {
+            machine.memory.setByteRaw(target, value);
+            fetch();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (out != null) {
+                flushTests();
+                out.close();
+            }
+            if (in != null) in.close();
+        } catch (IOException e) {
+            Logger.fmterr("Cannot write device log '%s'.", filename);
+        }
+    }
+
+}
@@ -4,17 +4,27 @@ import sic.common.Conversion;
 import sic.common.Logger;
 import sic.common.SICXE;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * @author jure
  */
 public class Devices {
 
     private Device[] devices;
+    private final Device[] defaults;    // devices this set was created with, see restore
+    DeviceLog log;                      // set by Machine.setDeviceLog
+    private ReentrantLock[] locks;      // one per device while shared by the cores of an Smp, see share
+    boolean accessed;                   // a read or write, which may have blocked, see Machine.run
 
     public Device getDevice(int idx) {
         return devices[idx];
     }
 
+    public int count() {
+        return devices.length;
+    }
+
     public void setDevice(int idx, Device device) {
         devices[idx] = device;
     }
@@ -26,21 +36,48 @@ public class Devices {
         return invalid;
     }
 
+    /**
+     * Arbitrate the accesses of several cores, see Smp: a device serves one read, write or test at a time,
+     * in the order the cores asked for them, while different devices are used in parallel.
+     */
+    void share() {
+        locks = new ReentrantLock[devices.length];
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new ReentrantLock(true);
+    }
+
     public int read(int idx) {
         if (checkDeviceIndex(idx)) {
             Logger.fmterr("Invalid device number '%d'.", idx);
             return 0;
         }
-        int val = devices[idx].read();
+        accessed = true;
+        if (locks != null) locks[idx].lock();
+        int val;
+        try {
+            val = log == null ? devices[idx].read() : log.read(idx, devices[idx]);
+        } finally {
+            if (locks != null) locks[idx].unlock();
+        }
         if (val < 0 || val > 255) val = 0;
         return val;
     }
 
     public void write(int idx, int val) {
-        if (checkDeviceIndex(idx))
+        if (checkDeviceIndex(idx)) {
             Logger.fmterr("Invalid device number '%d'.", idx);
-        else
-            devices[idx].write(val & 0xFF);
+            return;
+        }
+        accessed = true;
+        if (locks != null) locks[idx].lock();
+        try {
+            if (log == null)
+                devices[idx].write(val & 0xFF);
+            else
+                log.write(idx, devices[idx], val & 0xFF);
+        } finally {
+            if (locks != null) locks[idx].unlock();
+        }
     }
 
     public boolean test(int idx) {
@@ -48,7 +85,12 @@ public class Devices {
             Logger.fmterr("Invalid device number '%d'.", idx);
             return false;
         }
-        return devices[idx].test();
+        if (locks != null) locks[idx].lock();
+        try {
+            return log == null ? devices[idx].test() : log.test(idx, devices[idx]);
+        } finally {
+            if (locks != null) locks[idx].unlock();
+        }
     }
 
     public void reset() {
@@ -57,6 +99,15 @@ public class Devices {
         }
     }
 
+    /**
+     * Put back the devices this set was created with, replacing any set since, and reset them.
+     * Reuses the existing device objects, used when a machine is reused for another program.
+     */
+    public void restore() {
+        System.arraycopy(defaults, 0, devices, 0, devices.length);
+        reset();
+    }
+
     public Devices(int count) {
         assert count > 2;
         devices = new Device[count];
@@ -65,6 +116,18 @@ public class Devices {
         setDevice(SICXE.DEVICE_STDERR, new OutputDevice(System.err));
         for (int i = SICXE.DEVICE_FREE; i < count; i++)
             setDevice(i, new FileDevice(Conversion.byteToHex(i) + ".dev"));
+        defaults = devices.clone();
+    }
+
+    private Devices(Devices parent) {
+        devices = new Device[parent.devices.length];
+        for (int i = 0; i < devices.length; i++)
+            devices[i] = parent.devices[i].fork();
+        defaults = devices.clone();
+    }
+
+    public Devices fork() {
+        return new Devices(this);
     }
 
 }
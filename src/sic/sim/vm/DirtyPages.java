@@ -0,0 +1,87 @@
+package sic.sim.vm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pages of memory written since the consumer last looked at them.
+ * Marked by Memory on every write, read and cleared by views from their own threads.
+ */
+public class DirtyPages {
+
+    public static final int PAGE_BITS = 8;
+
+    private final int capacity;
+    private final AtomicLongArray bits;
+    private volatile int ignored = -1;  // see ignore
+
+    DirtyPages(int capacity) {
+        this.capacity = capacity;
+        this.bits = new AtomicLongArray(((capacity >> PAGE_BITS) + 64) >> 6);
+        markAll();
+    }
+
+    /**
+     * Writes of this single byte do not mark its page, e.g. a status byte the consumer writes itself,
+     * which would otherwise make its own range dirty again. Writes of ranges that cover it still do.
+     */
+    public void ignore(int address) {
+        ignored = address;
+    }
+
+    void mark(int address) {
+        if (address != ignored) markPage(address >> PAGE_BITS);
+    }
+
+    private void markPage(int page) {
+        long mask = 1L << page;
+        long old;
+        // the common case of an already dirty page costs a single read
+        while (((old = bits.get(page >> 6)) & mask) == 0)
+            if (bits.compareAndSet(page >> 6, old, old | mask)) return;
+    }
+
+    void mark(int address, int length) {
+        for (int page = address >> PAGE_BITS; page <= (address + length - 1) >> PAGE_BITS; page++)
+            markPage(page);
+    }
+
+    void markAll() {
+        for (int i = 0; i < bits.length(); i++)
+            bits.set(i, -1L);
+    }
+
+    /**
+     * Was any byte of the given range written since it was last cleared.
+     */
+    public boolean isDirty(int address, int length) {
+        if (length <= 0) return false;
+        int from = Math.max(address, 0) >> PAGE_BITS;
+        int to = Math.min(address + length - 1, capacity - 1) >> PAGE_BITS;
+        for (int page = from; page <= to; page++)
+            if ((bits.get(page >> 6) & 1L << page) != 0) return true;
+        return false;
+    }
+
+    /**
+     * Clear the pages of the given range and report whether any of them was dirty.
+     * Writes that race with the clear are either reported now or left marked for the next call.
+     */
+    public boolean clear(int address, int length) {
+        if (length <= 0) return false;
+        int from = Math.max(address, 0) >> PAGE_BITS;
+        int to = Math.min(address + length - 1, capacity - 1) >> PAGE_BITS;
+        boolean dirty = false;
+        for (int page = from; page <= to; page++) {
+            long mask = 1L << page;
+            long old;
+            while (((old = bits.get(page >> 6)) & mask) != 0) {
+                if (bits.compareAndSet(page >> 6, old, old & ~mask)) {
+                    dirty = true;
+                    break;
+                }
+            }
+        }
+        return dirty;
+    }
+
+}
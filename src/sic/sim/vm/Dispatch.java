@@ -0,0 +1,241 @@
+package sic.sim.vm;
+
+import sic.common.Flags;
+import sic.common.Opcode;
+import sic.common.SICXE;
+import sic.sim.breakpoints.DataBreakpointException;
+
+/**
+ * Table-driven instruction dispatch: every decoded instruction carries a handler index, looked up once
+ * from its format, opcode and addressing mode, and a single switch executes it. Immediate and simple
+ * addressing have handlers of their own, so the common instructions skip the addressing mode tests
+ * of Machine.exec. Indirect addressing, floating point, I/O and the rare opcodes use Machine.exec.
+ */
+final class Dispatch {
+
+    static final int GENERIC = 0;
+
+    // format 2
+    private static final int ADDR = 1;
+    private static final int SUBR = 2;
+    private static final int COMPR = 3;
+    private static final int RMO = 4;
+    private static final int CLEAR = 5;
+    private static final int TIXR = 6;
+    // immediate addressing
+    private static final int LDA_I = 10;
+    private static final int LDX_I = 11;
+    private static final int LDL_I = 12;
+    private static final int LDB_I = 13;
+    private static final int LDS_I = 14;
+    private static final int LDT_I = 15;
+    private static final int LDCH_I = 16;
+    private static final int ADD_I = 17;
+    private static final int SUB_I = 18;
+    private static final int MUL_I = 19;
+    private static final int AND_I = 20;
+    private static final int OR_I = 21;
+    private static final int COMP_I = 22;
+    private static final int TIX_I = 23;
+    // simple addressing (and SIC)
+    private static final int LDA = 30;
+    private static final int LDX = 31;
+    private static final int LDL = 32;
+    private static final int LDB = 33;
+    private static final int LDS = 34;
+    private static final int LDT = 35;
+    private static final int LDCH = 36;
+    private static final int ADD = 37;
+    private static final int SUB = 38;
+    private static final int MUL = 39;
+    private static final int AND = 40;
+    private static final int OR = 41;
+    private static final int COMP = 42;
+    private static final int TIX = 43;
+    private static final int STA = 44;
+    private static final int STX = 45;
+    private static final int STL = 46;
+    private static final int STB = 47;
+    private static final int STS = 48;
+    private static final int STT = 49;
+    private static final int STCH = 50;
+    private static final int J = 51;
+    private static final int JEQ = 52;
+    private static final int JGT = 53;
+    private static final int JLT = 54;
+    private static final int JSUB = 55;
+    private static final int RSUB = 56;
+
+    private Dispatch() {
+    }
+
+    /**
+     * Handler index of an instruction.
+     * @param opcode first byte of the instruction, including the ni bits
+     */
+    static int handler(int format, int opcode) {
+        switch (format) {
+            case DecodedInstruction.F2:
+                switch (opcode) {
+                    case Opcode.ADDR:   return ADDR;
+                    case Opcode.SUBR:   return SUBR;
+                    case Opcode.COMPR:  return COMPR;
+                    case Opcode.RMO:    return RMO;
+                    case Opcode.CLEAR:  return CLEAR;
+                    case Opcode.TIXR:   return TIXR;
+                }
+                return GENERIC;
+            case DecodedInstruction.F3:
+                int ni = opcode & Flags.MASK_NI;
+                if (ni == Flags.INDIRECT) return GENERIC;
+                if (ni == Flags.IMMEDIATE) return immediate(opcode & 0xFC);
+                return simple(opcode & 0xFC);
+        }
+        return GENERIC;
+    }
+
+    private static int immediate(int opcode) {
+        switch (opcode) {
+            case Opcode.LDA:    return LDA_I;
+            case Opcode.LDX:    return LDX_I;
+            case Opcode.LDL:    return LDL_I;
+            case Opcode.LDB:    return LDB_I;
+            case Opcode.LDS:    return LDS_I;
+            case Opcode.LDT:    return LDT_I;
+            case Opcode.LDCH:   return LDCH_I;
+            case Opcode.ADD:    return ADD_I;
+            case Opcode.SUB:    return SUB_I;
+            case Opcode.MUL:    return MUL_I;
+            case Opcode.AND:    return AND_I;
+            case Opcode.OR:     return OR_I;
+            case Opcode.COMP:   return COMP_I;
+            case Opcode.TIX:    return TIX_I;
+            case Opcode.RSUB:   return RSUB;
+        }
+        return GENERIC;
+    }
+
+    private static int simple(int opcode) {
+        switch (opcode) {
+            case Opcode.LDA:    return LDA;
+            case Opcode.LDX:    return LDX;
+            case Opcode.LDL:    return LDL;
+            case Opcode.LDB:    return LDB;
+            case Opcode.LDS:    return LDS;
+            case Opcode.LDT:    return LDT;
+            case Opcode.LDCH:   return LDCH;
+            case Opcode.ADD:    return ADD;
+            case Opcode.SUB:    return SUB;
+            case Opcode.MUL:    return MUL;
+            case Opcode.AND:    return AND;
+            case Opcode.OR:     return OR;
+            case Opcode.COMP:   return COMP;
+            case Opcode.TIX:    return TIX;
+            case Opcode.STA:    return STA;
+            case Opcode.STX:    return STX;
+            case Opcode.STL:    return STL;
+            case Opcode.STB:    return STB;
+            case Opcode.STS:    return STS;
+            case Opcode.STT:    return STT;
+            case Opcode.STCH:   return STCH;
+            case Opcode.J:      return J;
+            case Opcode.JEQ:    return JEQ;
+            case Opcode.JGT:    return JGT;
+            case Opcode.JLT:    return JLT;
+            case Opcode.JSUB:   return JSUB;
+            case Opcode.RSUB:   return RSUB;
+        }
+        return GENERIC;
+    }
+
+    /**
+     * Execute an already decoded instruction, PC must already point past it.
+     */
+    static void exec(Machine m, DecodedInstruction instruction) throws DataBreakpointException {
+        Registers r = m.registers;
+        int handler = instruction.handler;
+        if (handler == GENERIC) {
+            m.exec(instruction);
+            return;
+        }
+        int o = instruction.operand;
+        if (handler < LDA_I) {
+            int o1 = (o & 0xF0) >> 4;
+            int o2 = o & 0x0F;
+            switch (handler) {
+                case ADDR:  r.set(o2, r.get(o2) + r.get(o1)); break;
+                case SUBR:  r.set(o2, r.get(o2) - r.get(o1)); break;
+                case COMPR: r.setSWAfterCompare(r.gets(o1) - r.gets(o2)); break;
+                case RMO:   r.set(o2, r.get(o1)); break;
+                case CLEAR: r.set(o1, 0); break;
+                case TIXR:  r.setX(r.getX() + 1);
+                            r.setSWAfterCompare(r.getXs() - r.gets(o1));
+                            break;
+            }
+            return;
+        }
+        if (instruction.baseRelative) o += r.getB();
+        if (instruction.indexed) o += r.getXs();
+        switch (handler) {
+            // immediate operands
+            case LDA_I:     r.setA(o); break;
+            case LDX_I:     r.setX(o); break;
+            case LDL_I:     r.setL(o); break;
+            case LDB_I:     r.setB(o); break;
+            case LDS_I:     r.setS(o); break;
+            case LDT_I:     r.setT(o); break;
+            case LDCH_I:    r.setALo(o); break;
+            case ADD_I:     r.setA(r.getA() + o); break;
+            case SUB_I:     r.setA(r.getA() - o); break;
+            case MUL_I:     r.setA(r.getA() * o); break;
+            case AND_I:     r.setA(r.getA() & o); break;
+            case OR_I:      r.setA(r.getA() | o); break;
+            case COMP_I:    r.setSWAfterCompare(r.getAs() - SICXE.swordToInt(o)); break;
+            case TIX_I:     r.setX(r.getX() + 1);
+                            r.setSWAfterCompare(r.getXs() - SICXE.swordToInt(o));
+                            break;
+            // memory operands
+            case LDA:       r.setA(load(m, o)); break;
+            case LDX:       r.setX(load(m, o)); break;
+            case LDL:       r.setL(load(m, o)); break;
+            case LDB:       r.setB(load(m, o)); break;
+            case LDS:       r.setS(load(m, o)); break;
+            case LDT:       r.setT(load(m, o)); break;
+            case LDCH:      m.setLastExecRead(o, 1); r.setALo(m.memory.getByte(o)); break;
+            case ADD:       r.setA(r.getA() + load(m, o)); break;
+            case SUB:       r.setA(r.getA() - load(m, o)); break;
+            case MUL:       r.setA(r.getA() * load(m, o)); break;
+            case AND:       r.setA(r.getA() & load(m, o)); break;
+            case OR:        r.setA(r.getA() | load(m, o)); break;
+            case COMP:      r.setSWAfterCompare(r.getAs() - SICXE.swordToInt(load(m, o))); break;
+            case TIX:       r.setX(r.getX() + 1);
+                            r.setSWAfterCompare(r.getXs() - SICXE.swordToInt(load(m, o)));
+                            break;
+            case STA:       store(m, o, r.getA()); break;
+            case STX:       store(m, o, r.getX()); break;
+            case STL:       store(m, o, r.getL()); break;
+            case STB:       store(m, o, r.getB()); break;
+            case STS:       store(m, o, r.getS()); break;
+            case STT:       store(m, o, r.getT()); break;
+            case STCH:      m.setLastExecWrite(o, 1); m.memory.setByte(o, r.getA()); break;
+            // jumps
+            case J:         r.setPC(o); break;
+            case JEQ:       if (r.isEqual()) r.setPC(o); break;
+            case JGT:       if (r.isGreater()) r.setPC(o); break;
+            case JLT:       if (r.isLower()) r.setPC(o); break;
+            case JSUB:      r.setL(r.getPC()); m.pushJSUB(); r.setPC(o); break;
+            case RSUB:      r.setPC(r.getL()); m.popJSUB(); break;
+        }
+    }
+
+    private static int load(Machine m, int addr) throws DataBreakpointException {
+        m.setLastExecRead(addr, 3);
+        return m.memory.getWord(addr);
+    }
+
+    private static void store(Machine m, int addr, int word) throws DataBreakpointException {
+        m.setLastExecWrite(addr, 3);
+        m.memory.setWord(addr, word);
+    }
+
+}
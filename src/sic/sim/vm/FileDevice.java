@@ -5,6 +5,10 @@ import sic.common.Logger;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * @author: jure
@@ -56,9 +60,120 @@ public class FileDevice extends Device {
         }
     }
 
+    @Override
+    public long getPosition() {
+        if (file == null) return 0;
+        try {
+            return file.getFilePointer();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void setPosition(long position) {
+        if (position == 0 && file == null) return;
+        if (file == null) openFile();
+        if (file == null) return;
+        try {
+            file.seek(position);
+        } catch (IOException e) {
+            Logger.fmterr("Cannot seek in file '%s'", filename);
+        }
+    }
+
+    /**
+     * Fork continues at the current position on its own copy of the file, so that
+     * the parent and the fork neither see nor overwrite each other's writes.
+     * An open file is copied now; an untouched one when the fork first uses it.
+     */
+    @Override
+    public Device fork() {
+        return new Fork(filename, file == null ? null : contents(), getPosition());
+    }
+
+    private byte[] contents() {
+        try {
+            long position = file.getFilePointer();
+            byte[] data = new byte[(int) file.length()];
+            file.seek(0);
+            file.readFully(data);
+            file.seek(position);
+            return data;
+        } catch (IOException e) {
+            Logger.fmterr("Cannot read from file '%s'", filename);
+            return new byte[0];
+        }
+    }
+
     public FileDevice(String filename) {
         this.filename = filename;
         // do not open/create file - lazy open
     }
 
+    private static class Fork extends Device {
+
+        private final String filename;
+        private byte[] data;
+        private int length;
+        private int position;
+
+        Fork(String filename, byte[] data, long position) {
+            this.filename = filename;
+            this.data = data;
+            this.length = data == null ? 0 : data.length;
+            this.position = (int) position;
+        }
+
+        private void load() {
+            if (data != null) return;
+            try {
+                data = Files.readAllBytes(Path.of(filename));
+            } catch (NoSuchFileException e) {
+                data = new byte[0];
+            } catch (IOException e) {
+                Logger.fmterr("Cannot read from file '%s'", filename);
+                data = new byte[0];
+            }
+            length = data.length;
+        }
+
+        @Override
+        public int read() {
+            load();
+            if (position >= length) return super.read();
+            return data[position++] & 0xFF;
+        }
+
+        @Override
+        public void write(int value) {
+            load();
+            if (position >= data.length)
+                data = Arrays.copyOf(data, Math.max(position + 1, 2 * data.length));
+            data[position++] = (byte) value;
+            length = Math.max(length, position);
+        }
+
+        @Override
+        public void reset() {
+            position = 0;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void setPosition(long position) {
+            this.position = (int) position;
+        }
+
+        @Override
+        public Device fork() {
+            return new Fork(filename, data == null ? null : Arrays.copyOf(data, length), position);
+        }
+
+    }
+
 }
@@ -29,6 +29,12 @@ public class InputDevice extends Device {
         }
     }
 
+    // forks read the same stream; give each its own device to feed it separate input
+    @Override
+    public Device fork() {
+        return new InputDevice(input);
+    }
+
     public InputDevice(InputStream input) {
         this.input = input;
     }
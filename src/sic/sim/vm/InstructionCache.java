@@ -0,0 +1,89 @@
+package sic.sim.vm;
+
+import java.util.Arrays;
+
+/**
+ * Cache of decoded instructions keyed by their address.
+ * Entries are kept in a flat array indexed by the address, allocated with the first instruction.
+ * Memory invalidates the entries whenever a write hits the bytes of a cached instruction;
+ * bitmaps of the pages and bytes holding cached code answer writes to data without touching the entries.
+ */
+class InstructionCache {
+
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // the longest instruction (F4) spans four bytes
+    private static final int MAX_SIZE = 4;
+
+    private final int capacity;
+    private final long[] pages;             // pages holding some cached instruction
+    private DecodedInstruction[] entries;   // allocated with the first instruction
+    private long[] code;                    // bytes of cached instructions, kept marked until clear
+
+    InstructionCache(int capacity) {
+        this.capacity = capacity;
+        this.pages = new long[((capacity + PAGE_SIZE - 1) >> PAGE_BITS + 6) + 1];
+    }
+
+    DecodedInstruction get(int address) {
+        DecodedInstruction[] entries = this.entries;
+        return entries == null ? null : entries[address];
+    }
+
+    void put(int address, DecodedInstruction instruction) {
+        if (entries == null) {
+            entries = new DecodedInstruction[capacity];
+            code = new long[(capacity + 63) >> 6];
+        }
+        entries[address] = instruction;
+        for (int a = address; a < address + instruction.size && a < capacity; a++) {
+            pages[a >> PAGE_BITS + 6] |= 1L << (a >> PAGE_BITS);
+            code[a >> 6] |= 1L << a;
+        }
+    }
+
+    // the page test keeps writes to data pages off the large bitmap
+    private boolean hasCode(int address) {
+        return (pages[address >> PAGE_BITS + 6] & 1L << (address >> PAGE_BITS)) != 0
+                && (code[address >> 6] & 1L << address) != 0;
+    }
+
+    /**
+     * Drop all instructions that contain the byte at the given address.
+     */
+    void invalidate(int address) {
+        if (!hasCode(address)) return;
+        for (int a = Math.max(address - MAX_SIZE + 1, 0); a <= address; a++)
+            entries[a] = null;
+    }
+
+    /**
+     * Drop all instructions that overlap the given range.
+     */
+    void invalidate(int address, int length) {
+        if (entries == null || length <= 0) return;
+        int last = Math.min(address + length - 1, capacity - 1);
+        for (int a = Math.max(address, 0); a <= last; a++) {
+            if ((pages[a >> PAGE_BITS + 6] & 1L << (a >> PAGE_BITS)) == 0)
+                a |= PAGE_MASK;     // skip the whole page
+            else if ((code[a >> 6] & 1L << a) != 0)
+                invalidate(a);
+        }
+    }
+
+    void clear() {
+        if (entries == null) return;
+        for (int i = 0; i < pages.length; i++) {
+            for (long bits = pages[i]; bits != 0; bits &= bits - 1) {
+                int from = (i << 6 | Long.numberOfTrailingZeros(bits)) << PAGE_BITS;
+                int to = Math.min(from + PAGE_SIZE, capacity);
+                Arrays.fill(entries, from, to, null);
+                Arrays.fill(code, from >> 6, (to + 63) >> 6, 0);
+            }
+            pages[i] = 0;
+        }
+    }
+
+}
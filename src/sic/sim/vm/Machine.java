@@ -1,9 +1,11 @@
 package sic.sim.vm;
 
 import sic.common.*;
+import sic.sim.breakpoints.Breakpoints;
 import sic.sim.breakpoints.DataBreakpointException;
 import sic.sim.breakpoints.ReadDataBreakpointException;
 import sic.sim.breakpoints.WriteDataBreakpointException;
+import sic.sim.trace.TraceWriter;
 
 import java.util.Stack;
 
@@ -23,33 +25,107 @@ public class Machine {
 
     // ************ Statistics
 
-    private int instructionCount;
+    long instructionCount;
     private MemorySpan lastExecAddr;
     private MemorySpan lastExecRead;
     private MemorySpan lastExecWrite;
 
 
-    private Stack<Integer> addressBelowJSUB = new Stack<>();
+    final Stack<Integer> addressBelowJSUB = new Stack<>();
 
     private boolean indirectX = false;
 
+    private boolean tableDispatch = false;
+    private boolean lean = false;
+    private boolean blockExecution = false;
+
+    private boolean invalidOpcode;      // set by an invalid opcode, see run
+    boolean invalidAccess;              // set by an access out of bounds of a core of an Smp, see run
+    volatile boolean stopping;          // set by another thread, see stop
+
+    private UndoLog undoLog;            // records executed instructions for stepping back, see setUndoLog
+    private TraceWriter trace;          // records executed instructions to a file, see setTrace
+    private DeviceLog deviceLog;        // records or replays device I/O, see setDeviceLog
+
+    private final BlockCompiler blockCompiler = new BlockCompiler(this);
+    private BlockGenerator blockGenerator;  // created with the first hot block
+    // decoded instructions and compiled blocks, those of memory unless a core of an Smp, see Memory.share
+    final InstructionCache instructionCache;
+    final BlockCache blockCache;
+    private int codeGeneration;         // of shared memory when the caches were last valid, see checkCode
+    int faultStep;      // instruction of a fused block operation that triggered a data breakpoint or an invalid access
+
     // ************ Constructor
 
     public Machine() {
+        this(false);
+    }
+
+    /**
+     * @param sparseMemory allocate memory pages on first write, see Memory
+     */
+    public Machine(boolean sparseMemory) {
         this.registers = new Registers();
-        this.memory = new Memory(MAX_ADDRESS+1);
+        this.memory = new Memory(MAX_ADDRESS+1, sparseMemory);
         this.devices = new Devices(MAX_DEVICE+1);
+        this.instructionCache = memory.instructionCache;
+        this.blockCache = memory.blockCache;
+        this.lastExecRead = new MemorySpan();
+        this.lastExecWrite = new MemorySpan();
+        this.lastExecAddr = new MemorySpan();
+    }
+
+    // core of a multiprocessor, see Smp
+    Machine(Memory memory, Devices devices) {
+        this.registers = new Registers();
+        this.memory = memory;
+        this.devices = devices;
+        this.instructionCache = memory.isShared() ? new InstructionCache(memory.getCapacity()) : memory.instructionCache;
+        this.blockCache = memory.isShared() ? new BlockCache(memory.getCapacity()) : memory.blockCache;
+        this.lastExecRead = new MemorySpan();
+        this.lastExecWrite = new MemorySpan();
+        this.lastExecAddr = new MemorySpan();
+    }
+
+    private Machine(Machine parent) {
+        this.registers = parent.registers.copy();
+        this.memory = parent.memory.fork();
+        this.devices = parent.devices.fork();
+        this.instructionCache = memory.instructionCache;
+        this.blockCache = memory.blockCache;
         this.lastExecRead = new MemorySpan();
         this.lastExecWrite = new MemorySpan();
         this.lastExecAddr = new MemorySpan();
+        this.instructionCount = parent.instructionCount;
+        this.addressBelowJSUB.addAll(parent.addressBelowJSUB);
+        this.tableDispatch = parent.tableDispatch;
+        this.lean = parent.lean;
+        this.blockExecution = parent.blockExecution;
+    }
+
+    /**
+     * Child machine that continues from the current state of this one.
+     * Memory pages are shared copy-on-write, see Memory.fork, registers and devices are copied.
+     * Give the child its own input and output with devices.setDevice before running it.
+     * Must not be called while this machine is running; afterwards both run independently, also in parallel.
+     */
+    public Machine fork() {
+        return new Machine(this);
     }
 
     // ************ getters/setters
 
-    public int getInstructionCount() {
+    public long getInstructionCount() {
         return instructionCount;
     }
 
+    /**
+     * Account for instructions executed outside of the machine, e.g. by translated code.
+     */
+    public void addInstructionCount(int count) {
+        instructionCount += count;
+    }
+
     public MemorySpan getLastExecAddr() {
         return lastExecAddr;
     }
@@ -58,7 +134,8 @@ public class Machine {
         return lastExecRead;
     }
 
-    private void setLastExecRead(int startAddress, int spanLength) {
+    void setLastExecRead(int startAddress, int spanLength) {
+        if (lean) return;
         lastExecWrite.clear();
         lastExecRead.set(startAddress, spanLength);
     }
@@ -67,11 +144,164 @@ public class Machine {
         return lastExecWrite;
     }
 
-    private void setLastExecWrite(int startAddress, int spanLength) {
+    void setLastExecWrite(int startAddress, int spanLength) {
+        if (lean) return;
         lastExecRead.clear();
         lastExecWrite.set(startAddress, spanLength);
     }
 
+    public boolean isTableDispatch() {
+        return tableDispatch;
+    }
+
+    /**
+     * Dispatch cached instructions through the handler indices of Dispatch instead of the format and opcode switches.
+     */
+    public void setTableDispatch(boolean tableDispatch) {
+        this.tableDispatch = tableDispatch;
+    }
+
+    // the instruction started at lastExecAddr was executed
+    void executed(int size) {
+        if (!lean) lastExecAddr.setSpanLength(size);
+    }
+
+    public boolean isBlockExecution() {
+        return blockExecution;
+    }
+
+    /**
+     * Let run execute whole compiled blocks while no breakpoints are set.
+     */
+    public void setBlockExecution(boolean blockExecution) {
+        this.blockExecution = blockExecution;
+    }
+
+    public boolean isLean() {
+        return lean;
+    }
+
+    /**
+     * Lean execution skips the bookkeeping that only a debugger needs: the last executed, read
+     * and written memory spans and the JSUB stack used for stepping out of procedures.
+     * Executed blocks still report their last instruction in lastExecAddr.
+     * Switching modes clears the spans, entering lean mode also forgets the JSUB stack.
+     */
+    public void setLean(boolean lean) {
+        if (this.lean == lean) return;
+        this.lean = lean;
+        clearLastExecReadWrite();
+        if (lean) addressBelowJSUB.clear();
+    }
+
+    /**
+     * Bring the machine back to the state of a new one, for running another program on it.
+     * Memory is cleared page by page, see Memory.reset, and the original devices are put back, see Devices.restore.
+     * Execution modes are kept; undo log, trace and device log are detached.
+     * Must not be called while the machine is running.
+     */
+    public void reset() {
+        setUndoLog(null);
+        setTrace(null);
+        setDeviceLog(null);
+        registers.reset();
+        memory.reset();
+        devices.restore();
+        instructionCount = 0;
+        addressBelowJSUB.clear();
+        clearLastExecReadWrite();
+    }
+
+    /**
+     * Current state for a later restore; memory is forked, see Memory.fork.
+     * Must not be called while the machine is running.
+     */
+    public Checkpoint checkpoint() {
+        return new Checkpoint(this);
+    }
+
+    /**
+     * Go back (or forward) to the state of the given checkpoint of this machine.
+     * Device positions are restored, other device state (e.g. consumed input streams) is not,
+     * but a device log replays the device results from the checkpoint on, see DeviceLog.rewind.
+     */
+    public void restore(Checkpoint checkpoint) {
+        memory.restore(checkpoint.memory);
+        Registers r = checkpoint.registers;
+        registers.setPC(r.getPC());
+        registers.setA(r.getA());
+        registers.setX(r.getX());
+        registers.setL(r.getL());
+        registers.setB(r.getB());
+        registers.setS(r.getS());
+        registers.setT(r.getT());
+        registers.setSW(r.getSW());
+        registers.setF(r.getF());
+        instructionCount = checkpoint.instructionCount;
+        if (deviceLog != null) deviceLog.rewind(instructionCount);
+        addressBelowJSUB.clear();
+        for (int address : checkpoint.addressBelowJSUB) addressBelowJSUB.push(address);
+        for (int i = 0; i < checkpoint.devicePositions.length && i < devices.count(); i++)
+            if (checkpoint.devicePositions[i] >= 0) devices.getDevice(i).setPosition(checkpoint.devicePositions[i]);
+        clearLastExecReadWrite();
+        lastExecAddr.set(registers.getPC(), 0);
+    }
+
+    public UndoLog getUndoLog() {
+        return undoLog;
+    }
+
+    /**
+     * Record every executed instruction into the given log, or stop recording if null.
+     * While recording, instructions execute one at a time, also in executeBlock and run.
+     */
+    public void setUndoLog(UndoLog undoLog) {
+        this.undoLog = undoLog;
+        memory.undoLog = undoLog;
+    }
+
+    /**
+     * Undo the last recorded instruction: registers, overwritten memory, JSUB stack and instruction count.
+     * @return false if the undo log is empty or not set
+     */
+    public boolean stepBack() {
+        if (undoLog == null || !undoLog.undo(this)) return false;
+        clearLastExecReadWrite();
+        lastExecAddr.set(registers.getPC(), 0);
+        return true;
+    }
+
+    public TraceWriter getTrace() {
+        return trace;
+    }
+
+    /**
+     * Append every executed instruction to the given trace, or stop tracing if null.
+     * Records are built from the spans of the last instruction, so lean mode must be off while tracing.
+     * As with the undo log, instructions execute one at a time.
+     */
+    public void setTrace(TraceWriter trace) {
+        this.trace = trace;
+    }
+
+    public DeviceLog getDeviceLog() {
+        return deviceLog;
+    }
+
+    /**
+     * Record or replay device I/O with the given log, or stop if null.
+     * Keys are applied between instructions, so instructions execute one at a time.
+     */
+    public void setDeviceLog(DeviceLog deviceLog) {
+        this.deviceLog = deviceLog;
+        devices.log = deviceLog;
+    }
+
+    // blocks only track their last instruction
+    private boolean isRecording() {
+        return undoLog != null || trace != null || deviceLog != null;
+    }
+
     public void clearLastExecReadWrite() {
         lastExecWrite.clear();
         lastExecRead.clear();
@@ -85,6 +315,7 @@ public class Machine {
     }
 
     private void invalidOpcode(int opcode) {
+        invalidOpcode = true;
         Logger.fmterr("Invalid opcode '%d'.", opcode);
     }
 
@@ -117,7 +348,7 @@ public class Machine {
             case Opcode.DIVR:
                     int divisor = registers.get(o1);
                     if (divisor == 0) {
-                            System.out.println("division by zero");
+                            Logger.log("division by zero");
                     } else {
                             registers.set(o2, registers.gets(o2) / divisor);
                     }
@@ -188,6 +419,18 @@ public class Machine {
         memory.setFloat(addr, _float);
     }
 
+    // atomic with respect to CAS of the other cores sharing the memory, see Smp
+    private void compareAndSwap(Flags flags, int operand) throws DataBreakpointException {
+        int addr = resolveAddr(flags, operand);
+        setLastExecWrite(addr, 3);
+        synchronized (memory) {
+            int word = memory.getWord(addr);
+            registers.setSWAfterCompare(registers.getAs() - SICXE.swordToInt(word));
+            if (word == registers.getA()) memory.setWord(addr, registers.getS());
+            else registers.setA(word);
+        }
+    }
+
     private boolean execSICF3F4(int opcode, Flags flags, int operand) throws DataBreakpointException {
         // Formats: SIC, F3, F4
         switch (opcode) {
@@ -226,7 +469,7 @@ public class Machine {
             case Opcode.DIV:
                     int divisor = SICXE.swordToInt(loadWord(flags, operand));
                     if (divisor == 0) {
-                            System.out.println("division by zero");
+                            Logger.log("division by zero");
                     } else {
                             registers.setA(registers.getAs() / divisor);
                     }
@@ -252,6 +495,7 @@ public class Machine {
             case Opcode.LPS:	notImplemented("LPS"); break;
             case Opcode.STI:	notImplemented("STI"); break;
             case Opcode.SSK:	notImplemented("SSK"); break;
+            case Opcode.CAS:	compareAndSwap(flags, operand); break;
             default: return false;
         }
         return true;
@@ -263,25 +507,319 @@ public class Machine {
         return b;
     }
 
+    /**
+     * Decode the instruction at the given address without executing it.
+     * Returns null if the instruction cannot be cached, i.e. when it is invalid, not implemented
+     * or wraps around the end of memory: such instructions are always executed by the slow path
+     * so that they keep reporting errors.
+     */
+    DecodedInstruction decode(int address) {
+        if (address + 4 > MAX_ADDRESS) return null;
+        int opcode = memory.getByteRaw(address);
+        // format 1
+        switch (opcode) {
+            case Opcode.FLOAT:
+            case Opcode.FIX:
+                return new DecodedInstruction(opcode, DecodedInstruction.F1, 1, 0);
+            case Opcode.NORM: case Opcode.SIO: case Opcode.HIO: case Opcode.TIO:
+                return null;
+        }
+        int op = memory.getByteRaw(address + 1);
+        // format 2
+        switch (opcode) {
+            case Opcode.ADDR: case Opcode.SUBR: case Opcode.MULR: case Opcode.DIVR:
+            case Opcode.COMPR: case Opcode.SHIFTL: case Opcode.SHIFTR: case Opcode.RMO:
+            case Opcode.CLEAR: case Opcode.TIXR:
+                return new DecodedInstruction(opcode, DecodedInstruction.F2, 2, op);
+            case Opcode.SVC:
+                return null;
+        }
+        // SIC, F3, F4
+        switch (opcode & 0xFC) {
+            case Opcode.LPS: case Opcode.STI: case Opcode.SSK:
+                return null;
+        }
+        if (!Opcode.isValid(opcode & 0xFC)) return null;
+        Flags flags = new Flags(opcode, op);
+        int size;
+        int operand;
+        boolean baseRelative = false;
+        if (flags.isSic()) {
+            operand = flags.operandSic(op, memory.getByteRaw(address + 2));
+            size = 3;
+        } else if (flags.isExtended()) {
+            if (flags.isRelative()) return null;
+            operand = flags.operandF4(op, memory.getByteRaw(address + 2), memory.getByteRaw(address + 3));
+            size = 4;
+        } else {
+            size = 3;
+            operand = flags.operandF3(op, memory.getByteRaw(address + 2));
+            if (flags.isPCRelative())
+                operand = flags.operandPCRelative(operand) + address + size;
+            else if (flags.isBaseRelative())
+                baseRelative = true;
+            else if (!flags.isAbsolute())
+                return null;
+        }
+        boolean indexed = false;
+        boolean indirectX = false;
+        if (flags.isIndexed())
+            if (flags.isSimple()) indexed = true;
+            else if (flags.isIndirect()) indirectX = true;
+            else return null;
+        return new DecodedInstruction(opcode, DecodedInstruction.F3, size, operand, flags, baseRelative, indexed, indirectX);
+    }
+
     public void execute() throws DataBreakpointException {
+        if (deviceLog != null) deviceLog.beforeInstruction();
+        if (trace == null) {
+            executeUndoable();
+            return;
+        }
+        trace.before(this);
+        boolean completed = false;
+        try {
+            executeUndoable();
+            completed = true;
+        } finally {
+            // an instruction stopped by a data breakpoint is counted too, so it is traced as well
+            trace.record(this, !completed);
+        }
+    }
+
+    private void executeUndoable() throws DataBreakpointException {
+        if (undoLog == null) {
+            executeNext();
+        } else {
+            undoLog.begin(registers);
+            try {
+                executeNext();
+            } finally {
+                // an instruction stopped by a data breakpoint is counted too, so it is logged as well
+                undoLog.commit(registers);
+            }
+        }
+    }
+
+    private void executeNext() throws DataBreakpointException {
         indirectX = false;
         instructionCount++;
+        int address = registers.getPC();
+        if (!lean) {
+            lastExecRead.clear();
+            lastExecWrite.clear();
+            lastExecAddr.setStartAddress(address);
+            lastExecAddr.setSpanLength(0);
+        }
+        if (instructionCache != memory.instructionCache) checkCode();
+        DecodedInstruction instruction = instructionCache.get(address);
+        if (instruction == null) {
+            instruction = decodeToCache(address);
+            if (instruction == null) {
+                decodeAndExecute();
+                return;
+            }
+            instructionCache.put(address, instruction);
+        }
+        registers.setPC(address + instruction.size);
+        if (tableDispatch) Dispatch.exec(this, instruction);
+        else exec(instruction);
+        executed(instruction.size);
+    }
+
+    /**
+     * Execute an already decoded instruction, PC must already point past it.
+     */
+    void exec(DecodedInstruction instruction) throws DataBreakpointException {
+        switch (instruction.format) {
+            case DecodedInstruction.F1:
+                execF1(instruction.opcode);
+                break;
+            case DecodedInstruction.F2:
+                execF2(instruction.opcode, instruction.operand);
+                break;
+            default:
+                int operand = instruction.operand;
+                if (instruction.baseRelative) operand += registers.getB();
+                if (instruction.indexed) operand += registers.getXs();
+                indirectX = instruction.indirectX;
+                execSICF3F4(instruction.opcode & 0xFC, instruction.flags, operand);
+        }
+    }
+
+    // decode an instruction to be cached; a core of an Smp marks its bytes as code first and reads them again
+    DecodedInstruction decodeToCache(int address) {
+        DecodedInstruction instruction = decode(address);
+        if (instructionCache == memory.instructionCache) return instruction;
+        while (instruction != null) {
+            memory.caching(address, instruction.size);
+            DecodedInstruction again = decode(address);
+            if (again == null || again.size <= instruction.size) return again;
+            instruction = again;
+        }
+        return null;
+    }
+
+    // a core of an Smp drops its caches after another core wrote to code cached by any of them
+    private void checkCode() {
+        int generation = memory.codeGeneration.get();
+        if (generation == codeGeneration) return;
+        instructionCache.clear();
+        blockCache.clear();
+        codeGeneration = generation;
+    }
+
+    /**
+     * Execute the basic block starting at PC, compiling it first if needed.
+     * The block is left early if one of its instructions overwrites the block itself,
+     * or after an instruction that made an invalid memory access, see run.
+     * If a data breakpoint is triggered, PC is set back to the instruction that triggered it.
+     * Only the last executed instruction is tracked in lastExecAddr, read/write spans are cleared.
+     * @return number of executed instructions
+     */
+    public int executeBlock() throws DataBreakpointException {
+        int address = registers.getPC();
+        // undo, trace and device log records are kept per instruction
+        boolean core = blockCache != memory.blockCache;
+        if (core) checkCode();
+        Block block = isRecording() ? null : blockCache.get(address);
+        if (block == null) {
+            block = isRecording() ? null : blockCompiler.compile(address);
+            if (block == null) {
+                execute();
+                if (lean) lastExecAddr.setStartAddress(address);
+                return 1;
+            }
+            blockCache.put(block);
+        }
+        // cores share blocks but not the generated code, which does not follow the writes of other cores
+        if (block.code == null && !core && ++block.runs == BlockGenerator.HOT_RUNS) {
+            if (blockGenerator == null) blockGenerator = new BlockGenerator();
+            block.code = blockGenerator.generate(block);
+        }
+        Block.Op[] ops = block.ops;
+        int[] widths = block.widths;
+        int count = 0;
+        int i = 0;
+        try {
+            if (block.code != null && !core) {
+                count = block.code.exec(this, block);
+                i = ops.length;
+            }
+            while (i < ops.length) {
+                ops[i].exec(this);
+                if (memory.invalidAccess || invalidAccess) {
+                    // stop after the faulting instruction, as run does
+                    count += faultStep + 1;
+                    faultStep = 0;
+                    break;
+                }
+                count += widths[i++];
+                if (!block.valid) break;    // self-modifying code
+                if (core && codeGeneration != memory.codeGeneration.get()) break;
+            }
+        } catch (DataBreakpointException e) {
+            count += faultStep + 1;
+            faultStep = 0;
+            instructionCount += count;
+            registers.setPC(block.addresses[count - 1]);
+            throw e;
+        }
+        instructionCount += count;
+        if (!block.terminated || count < block.length())
+            registers.setPC(block.next(count));
         lastExecRead.clear();
         lastExecWrite.clear();
-        lastExecAddr.setStartAddress(registers.getPC());
-        lastExecAddr.setSpanLength(0);
+        lastExecAddr.set(block.addresses[count - 1], block.next(count) - block.addresses[count - 1]);
+        return count;
+    }
+
+    /**
+     * Run until the budget is used up or something stops the machine: a halt (J to itself), a breakpoint,
+     * a data breakpoint, an invalid opcode, an invalid memory access or another thread, see stop.
+     * Invalid instructions and accesses are executed as usual (i.e. reported and skipped) before stopping.
+     * Data breakpoints disabled by the previous trigger are enabled again after the first instruction.
+     * @param maxInstructions maximal number of instructions to execute, unlimited if not positive
+     * @param maxNanos maximal running time in nanoseconds, unlimited if not positive
+     * @param breakpoints breakpoints to stop at, may be null
+     */
+    public StopReason run(long maxInstructions, long maxNanos, Breakpoints breakpoints) {
+        boolean blocks = blockExecution && !isRecording() && (breakpoints == null || breakpoints.isEmpty());
+        long deadline = maxNanos > 0 ? System.nanoTime() + maxNanos : 0;
+        long start = instructionCount;
+        invalidOpcode = false;
+        if (memory.isShared()) {
+            memory.core.set(this);
+            invalidAccess = false;
+        } else {
+            memory.invalidAccess = false;
+        }
+        int pc = registers.getPC();
+        boolean block = false;
+        int steps = 0;
+        try {
+            while (true) {
+                long executed = instructionCount - start;
+                if (maxInstructions > 0 && executed >= maxInstructions) return StopReason.BUDGET;
+                // reading the clock costs more than a few instructions, a device access may have blocked for long
+                if ((++steps & 0xFF) == 0 || devices.accessed) {
+                    devices.accessed = false;
+                    if (deadline != 0 && System.nanoTime() - deadline >= 0) return StopReason.BUDGET;
+                    if (stopping) {
+                        stopping = false;
+                        return StopReason.STOPPED;
+                    }
+                }
+                pc = registers.getPC();
+                int last;
+                // a block may not overrun the budget nor skip re-enabled data breakpoints
+                block = blocks && memory.dataBreakpoints.isEnabled()
+                        && (maxInstructions <= 0 || maxInstructions - executed >= BlockCompiler.MAX_BLOCK_LENGTH);
+                if (block) {
+                    executeBlock();
+                    last = lastExecAddr.getStartAddress();
+                } else {
+                    execute();
+                    last = pc;
+                    if (!memory.dataBreakpoints.isEnabled()) memory.dataBreakpoints.enable();
+                }
+                // before the halt check, a block may end with the halt
+                if (invalidOpcode) return StopReason.INVALID_OPCODE;
+                if (memory.invalidAccess || invalidAccess) return StopReason.INVALID_ADDRESS;
+                if (last == registers.getPC()) return StopReason.HALT;
+                if (breakpoints != null && breakpoints.has(registers.getPC())) return StopReason.BREAKPOINT;
+            }
+        } catch (DataBreakpointException e) {
+            // the instruction did not complete, blocks set PC themselves
+            if (!block) registers.setPC(pc);
+            return StopReason.DATA_BREAKPOINT;
+        }
+    }
+
+    /**
+     * Make a run in progress on another thread return STOPPED within a few hundred instructions or blocks.
+     * A run blocked in a device read returns only after the read. If no run is in progress, the next one stops.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Fetch, decode and execute the instruction at PC without using the instruction cache.
+     */
+    private void decodeAndExecute() throws DataBreakpointException {
         // fetch first byte
         int opcode = fetch();
         // try format 1
         if (execF1(opcode)) {
-            lastExecAddr.setSpanLength(1);
+            executed(1);
             return;
         }
         // fetch one more byte
         int op = fetch();
         // try format 2
         if (execF2(opcode, op)) {
-            lastExecAddr.setSpanLength(2);
+            executed(2);
             return;
         }
         // otherwise it is format SIC, F3 or F4
@@ -316,7 +854,7 @@ public class Machine {
             else invalidAddressing();
         // try to execute
         if (execSICF3F4(opcode & 0xFC, flags, operand)) {
-            lastExecAddr.setSpanLength(instructionSize);
+            executed(instructionSize);
             return;
         }
         invalidOpcode(opcode);
@@ -328,16 +866,21 @@ public class Machine {
     /**
      * Push the address bellow current JSUB to the stack, so we can step out of procedure later.
      */
-    private void pushJSUB() {
+    void pushJSUB() {
+        if (lean) return;
         this.addressBelowJSUB.push(this.registers.getPC());
+        if (undoLog != null) undoLog.pushed();
     }
 
     /**
      * Pop the last address bellow current JSUB from the stack, since we got out of current function.
      * (to be called with RSUB)
      */
-    private void popJSUB() {
-        this.addressBelowJSUB.pop();
+    void popJSUB() {
+        // the stack is empty if the procedure was entered in lean mode
+        if (lean || this.addressBelowJSUB.isEmpty()) return;
+        int address = this.addressBelowJSUB.pop();
+        if (undoLog != null) undoLog.popped(address);
     }
 
     /**
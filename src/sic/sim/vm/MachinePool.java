@@ -0,0 +1,64 @@
+package sic.sim.vm;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable machines for running many short programs.
+ * A released machine is reset, which clears only the memory pages the program wrote and keeps its devices,
+ * so taking a machine from the pool costs far less than building a new one.
+ * Safe to use from many threads; each acquired machine belongs to its caller until released.
+ */
+public class MachinePool {
+
+    private final boolean sparseMemory;
+    private final int maxIdle;
+    private final ConcurrentLinkedDeque<Machine> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * @param sparseMemory create machines with sparse memory, see Memory
+     * @param maxIdle at most this many released machines are kept, the rest are left to the garbage collector
+     */
+    public MachinePool(boolean sparseMemory, int maxIdle) {
+        this.sparseMemory = sparseMemory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Create machines up front, e.g. one per worker thread.
+     */
+    public void prestart(int count) {
+        for (int i = 0; i < count; i++)
+            release(new Machine(sparseMemory));
+    }
+
+    /**
+     * A machine in the state of a new one, taken from the pool or created if none is idle.
+     * Execution modes set by its previous user are kept, see Machine.reset.
+     */
+    public Machine acquire() {
+        // the most recently released machine is the most likely to still be in the CPU caches
+        Machine machine = idle.pollFirst();
+        if (machine == null) return new Machine(sparseMemory);
+        idleCount.decrementAndGet();
+        return machine;
+    }
+
+    /**
+     * Return a machine that is no longer used; it is reset before it is handed out again.
+     */
+    public void release(Machine machine) {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        machine.reset();
+        idle.addFirst(machine);
+    }
+
+    public int getIdle() {
+        return idleCount.get();
+    }
+
+}
@@ -7,7 +7,11 @@ import sic.sim.breakpoints.DataBreakpoints;
 import sic.sim.breakpoints.ReadDataBreakpointException;
 import sic.sim.breakpoints.WriteDataBreakpointException;
 
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Memory
@@ -15,25 +19,346 @@ import java.util.Arrays;
  */
 public class Memory {
 
+    // sparse memory is split into pages allocated on first write
+    public static final int PAGE_BITS = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Contents of flat memory, null for sparse memory.
+     * Prefer the accessors below or getBytesRaw, which work for both; writes into the array directly are
+     * not seen by caches nor by reset.
+     */
     public final byte[] memory;
 
+    private final int capacity;
+    private final byte[][] pages;       // sparse memory, a null page reads as zeros
+    private long[] shared;              // pages shared with forks, copied on first write
+    private final long[] touched;       // pages of flat memory written since the last reset, see reset
+
     public DataBreakpoints dataBreakpoints = new DataBreakpoints();
 
+    // decoded instructions and compiled blocks, invalidated on every write to their bytes
+    final InstructionCache instructionCache;
+    final BlockCache blockCache;
+
+    // code watched by externally translated programs, see watchCode
+    private long[] watchedCode;
+    private int codeWrites;
+
+    // dirty pages of every consumer that asked for them, see trackDirtyPages
+    private volatile DirtyPages[] dirtyPages = new DirtyPages[0];
+
+    // set on an access out of bounds, see Machine.run; cores of an Smp get their own flag, see checkAddress
+    boolean invalidAccess;
+
+    // cores of an Smp keep their own caches, see share
+    private AtomicLongArray coreCode;       // bytes cached by any core, set before the core reads them
+    final AtomicInteger codeGeneration = new AtomicInteger();  // bumped by a write to coreCode, cores then drop their caches
+    final ThreadLocal<Machine> core = new ThreadLocal<>();  // core running on the current thread, see Machine.run
+
+    // receives the old contents of bytes overwritten by instructions, see Machine.setUndoLog
+    UndoLog undoLog;
+
     public Memory(int capacity) {
-        this.memory = new byte[capacity];
+        this(capacity, false);
+    }
+
+    /**
+     * @param sparse allocate pages on first write instead of the whole memory up front
+     */
+    public Memory(int capacity, boolean sparse) {
+        this.capacity = capacity;
+        this.memory = sparse ? null : new byte[capacity];
+        this.pages = sparse ? new byte[(capacity + PAGE_SIZE - 1) >> PAGE_BITS][] : null;
+        this.touched = sparse ? null : new long[(((capacity + PAGE_SIZE - 1) >> PAGE_BITS) + 63) >> 6];
+        this.instructionCache = new InstructionCache(capacity);
+        this.blockCache = new BlockCache(capacity);
+    }
+
+    private Memory(Memory parent) {
+        this(parent.capacity, true);
+        if (parent.memory != null) {
+            // flat memory cannot be shared, copy its pages that hold anything
+            for (int i = 0; i < pages.length; i++) {
+                int from = i << PAGE_BITS;
+                int to = Math.min(from + PAGE_SIZE, capacity);
+                for (int a = from; a < to; a++) {
+                    if (parent.memory[a] == 0) continue;
+                    pages[i] = Arrays.copyOfRange(parent.memory, from, from + PAGE_SIZE);
+                    break;
+                }
+            }
+            return;
+        }
+        System.arraycopy(parent.pages, 0, pages, 0, pages.length);
+        shared = new long[(pages.length + 63) >> 6];
+        for (int i = 0; i < pages.length; i++)
+            if (pages[i] != null) shared[i >> 6] |= 1L << i;
+        if (parent.shared == null) parent.shared = shared.clone();
+        else for (int i = 0; i < shared.length; i++) parent.shared[i] |= shared[i];
+    }
+
+    /**
+     * Replace the contents with those of a fork of this memory, e.g. of a checkpoint.
+     * Sparse memory takes over the fork's pages copy-on-write, flat memory copies them.
+     */
+    public synchronized void restore(Memory fork) {
+        if (memory != null) {
+            for (int i = 0; i < fork.pages.length; i++) {
+                int from = i << PAGE_BITS;
+                int length = Math.min(PAGE_SIZE, capacity - from);
+                if (fork.pages[i] != null) {
+                    System.arraycopy(fork.pages[i], 0, memory, from, length);
+                    touched[i >> 6] |= 1L << i;
+                } else if ((touched[i >> 6] & 1L << i) != 0) {
+                    Arrays.fill(memory, from, from + length, (byte)0);
+                    touched[i >> 6] &= ~(1L << i);
+                }
+            }
+        } else {
+            System.arraycopy(fork.pages, 0, pages, 0, pages.length);
+            if (shared == null) shared = new long[(pages.length + 63) >> 6];
+            Arrays.fill(shared, -1L);
+        }
+        instructionCache.clear();
+        blockCache.clear();
+        if (coreCode != null) codeGeneration.incrementAndGet();
+        if (watchedCode != null) codeWrites++;
+        for (DirtyPages pages : dirtyPages) pages.markAll();
+        if (undoLog != null) undoLog.clear();
+    }
+
+    /**
+     * Sparse memory with the same contents, sharing pages with this one until either side writes to them.
+     * Forking flat memory copies its non-zero pages instead.
+     * Neither memory may be in use by another thread during the fork; afterwards both can be used independently.
+     * Data breakpoints, dirty page trackers and watched code are not inherited.
+     */
+    public synchronized Memory fork() {
+        return new Memory(this);
+    }
+
+    /**
+     * Prepare the memory to be shared by the cores of an Smp, which run in parallel and cache code on their own.
+     * A write to code cached by any core makes all of them drop their caches before their next instruction.
+     */
+    synchronized void share() {
+        if (coreCode == null) coreCode = new AtomicLongArray((capacity + 63) >> 6);
+    }
+
+    boolean isShared() {
+        return coreCode != null;
+    }
+
+    /**
+     * A core is about to read the given bytes again as code and cache them, see Machine.decodeToCache.
+     * Marked before reading, so a write by another core either is read or makes the core drop its caches.
+     */
+    void caching(int address, int length) {
+        for (int a = Math.max(address, 0); a < address + length && a < capacity; a++)
+            if ((coreCode.get(a >> 6) & 1L << a) == 0) coreCode.getAndAccumulate(a >> 6, 1L << a, (x, y) -> x | y);
     }
 
+    private void coreCodeWritten(int address, int length) {
+        // the bytes must be stored before coreCode is read, see caching
+        VarHandle.fullFence();
+        for (int a = Math.max(address, 0); a < address + length && a < capacity; a++) {
+            if ((coreCode.get(a >> 6) & 1L << a) != 0) {
+                codeGeneration.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    public boolean isSparse() {
+        return memory == null;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of bytes actually allocated for the contents.
+     */
+    public int getAllocated() {
+        if (memory != null) return memory.length;
+        int count = 0;
+        for (byte[] page : pages)
+            if (page != null) count++;
+        return count * PAGE_SIZE;
+    }
+
+    /**
+     * Clear the whole memory. Flat memory zeroes only the pages written since the last reset,
+     * so resetting after a short program is cheap.
+     */
     public void reset() {
-        Arrays.fill(memory, (byte)0);
+        if (memory != null) {
+            for (int i = 0; i < touched.length; i++) {
+                for (long bits = touched[i]; bits != 0; bits &= bits - 1) {
+                    int from = (i << 6 | Long.numberOfTrailingZeros(bits)) << PAGE_BITS;
+                    Arrays.fill(memory, from, Math.min(from + PAGE_SIZE, capacity), (byte)0);
+                }
+                touched[i] = 0;
+            }
+        } else {
+            Arrays.fill(pages, null);
+        }
+        shared = null;
+        if (undoLog != null) undoLog.clear();
+        instructionCache.clear();
+        blockCache.clear();
+        if (coreCode != null) {
+            for (int i = 0; i < coreCode.length(); i++) coreCode.set(i, 0);
+            codeGeneration.incrementAndGet();
+        }
+        if (watchedCode != null) {
+            watchedCode = null;
+            codeWrites++;
+        }
+        for (DirtyPages pages : dirtyPages) pages.markAll();
     }
+
+    /**
+     * Start tracking pages written from now on; the whole memory starts out dirty.
+     * Each consumer should ask for its own tracker, since reading one clears it.
+     */
+    public synchronized DirtyPages trackDirtyPages() {
+        DirtyPages pages = new DirtyPages(capacity);
+        DirtyPages[] all = Arrays.copyOf(dirtyPages, dirtyPages.length + 1);
+        all[all.length - 1] = pages;
+        dirtyPages = all;
+        return pages;
+    }
+
+    /**
+     * Watch the given range of code: every later write into it is counted in getCodeWrites().
+     * Used by translated programs to detect self-modifying code.
+     */
+    public void watchCode(int address, int length) {
+        if (watchedCode == null) watchedCode = new long[(capacity + 63) >> 6];
+        for (int a = Math.max(address, 0); a < address + length && a < capacity; a++)
+            watchedCode[a >> 6] |= 1L << a;
+    }
+
+    /**
+     * Number of writes into watched code so far.
+     */
+    public int getCodeWrites() {
+        return codeWrites;
+    }
+
+    // invalidate everything derived from the byte at the given address
+    private void written(int address) {
+        // only read when already marked, so cores of an Smp do not keep writing the same cache line
+        if (touched != null && (touched[address >> PAGE_BITS + 6] & 1L << (address >> PAGE_BITS)) == 0)
+            touched[address >> PAGE_BITS + 6] |= 1L << (address >> PAGE_BITS);
+        instructionCache.invalidate(address);
+        blockCache.invalidate(address);
+        if (coreCode != null) coreCodeWritten(address, 1);
+        if (watchedCode != null && (watchedCode[address >> 6] & 1L << address) != 0) codeWrites++;
+        for (DirtyPages pages : dirtyPages) pages.mark(address);
+    }
+
+    private void written(int address, int length) {
+        if (touched != null)
+            for (int page = address >> PAGE_BITS; page <= (address + length - 1) >> PAGE_BITS; page++)
+                if ((touched[page >> 6] & 1L << page) == 0) touched[page >> 6] |= 1L << page;
+        instructionCache.invalidate(address, length);
+        blockCache.invalidate(address, length);
+        if (coreCode != null) coreCodeWritten(address, length);
+        if (watchedCode != null)
+            for (int a = address; a < address + length; a++)
+                if ((watchedCode[a >> 6] & 1L << a) != 0) codeWrites++;
+        for (DirtyPages pages : dirtyPages) pages.mark(address, length);
+    }
+
+    // whole span inside memory bounds: single check for word and float accessors,
+    // otherwise they go byte by byte and report each invalid address
+    private boolean inside(int address, int length) {
+        return address >= 0 && address <= capacity - length;
+    }
+
+    // single bytes of either representation, the address must be inside bounds
+    private int read(int address) {
+        if (memory != null) return memory[address] & 0xFF;
+        byte[] page = pages[address >> PAGE_BITS];
+        return page == null ? 0 : page[address & PAGE_MASK] & 0xFF;
+    }
+
+    private void write(int address, int value) {
+        if (memory != null) memory[address] = (byte)value;
+        else page(address)[address & PAGE_MASK] = (byte)value;
+    }
+
+    private byte[] page(int address) {
+        int i = address >> PAGE_BITS;
+        byte[] page = pages[i];
+        if (page == null) {
+            page = pages[i] = new byte[PAGE_SIZE];
+        } else if (shared != null && (shared[i >> 6] & 1L << i) != 0) {
+            page = pages[i] = page.clone();
+            shared[i >> 6] &= ~(1L << i);
+        }
+        return page;
+    }
+
+    // big-endian values, the span must be inside bounds
+    private int word(int address) {
+        if (memory != null)
+            return (memory[address] & 0xFF) << 16 | (memory[address + 1] & 0xFF) << 8 | memory[address + 2] & 0xFF;
+        return read(address) << 16 | read(address + 1) << 8 | read(address + 2);
+    }
+
+    private void putWord(int address, int value) {
+        if (memory != null) {
+            memory[address] = (byte)(value >> 16);
+            memory[address + 1] = (byte)(value >> 8);
+            memory[address + 2] = (byte)value;
+        } else {
+            write(address, value >> 16);
+            write(address + 1, value >> 8);
+            write(address + 2, value);
+        }
+        written(address, 3);
+    }
+
+    private long floatBits(int address) {
+        if (memory != null)
+            return (long)(memory[address] & 0xFF) << 40 | (long)(memory[address + 1] & 0xFF) << 32 |
+                   (long)(memory[address + 2] & 0xFF) << 24 | (memory[address + 3] & 0xFF) << 16 |
+                   (memory[address + 4] & 0xFF) << 8 | memory[address + 5] & 0xFF;
+        long bits = 0;
+        for (int i = 0; i < 6; i++)
+            bits = bits << 8 | read(address + i);
+        return bits;
+    }
+
+    private void putFloatBits(int address, long bits) {
+        for (int i = 5; i >= 0; i--, bits >>= 8)
+            write(address + i, (int)bits);
+        written(address, 6);
+    }
+    // old contents for the undo log, only writes by instructions are logged
+    private void overwriting(int address, int length) {
+        for (int a = address; a < address + length; a++)
+            undoLog.overwriting(a, read(a));
+    }
+
     /**
      * Checks if the address is inside memory bounds
      * @return true if address is invalid
      */
     private boolean checkAddress(int address) {
-        boolean invalid = address < 0 || address >= memory.length;
-        if (invalid)
+        boolean invalid = address < 0 || address >= capacity;
+        if (invalid) {
+            Machine machine = coreCode == null ? null : core.get();
+            if (machine != null) machine.invalidAccess = true;
+            else invalidAccess = true;
             Logger.fmterr("Invalid memory address '%s', %d", Conversion.addrToHex(address), address);
+        }
         return invalid;
     }
 
@@ -44,26 +369,42 @@ public class Memory {
     public int getByte(int address) throws ReadDataBreakpointException {
         if (checkAddress(address)) return 0;
         dataBreakpoints.checkRead(address);
-        return ((int)memory[address]) & 0xFF;
+        return read(address);
     }
 
     public void setByte(int address, int value) throws WriteDataBreakpointException {
         if (checkAddress(address)) return;
         dataBreakpoints.checkWrite(address);
-        memory[address] = (byte)(value & 0xFF);
+        if (undoLog != null) overwriting(address, 1);
+        write(address, value);
+        written(address);
     }
 
     public int getWord(int address) throws ReadDataBreakpointException {
+        if (inside(address, 3)) {
+            dataBreakpoints.checkRead(address, 3);
+            return word(address);
+        }
         return getByte(address + 2) | getByte(address + 1) << 8 | getByte(address) << 16;
     }
 
     public void setWord(int address, int value) throws WriteDataBreakpointException {
+        if (inside(address, 3)) {
+            dataBreakpoints.checkWrite(address, 3);
+            if (undoLog != null) overwriting(address, 3);
+            putWord(address, value);
+            return;
+        }
         setByte(address, value >> 16);
         setByte(address + 1, value >> 8);
         setByte(address + 2, value);
     }
 
     public double getFloat(int address) throws ReadDataBreakpointException {
+        if (inside(address, 6)) {
+            dataBreakpoints.checkRead(address, 6);
+            return SICXE.bitsToFloat(floatBits(address));
+        }
         long bits  =  (long)getByte(address)  << 40 | (long)getByte(address+1) << 32 |
                       (long)getByte(address+2) << 24 | getByte(address+3) << 16 |
                       getByte(address+4) << 8  | getByte(address+5);
@@ -72,6 +413,12 @@ public class Memory {
 
     public void setFloat(int address, double value) throws WriteDataBreakpointException {
         long bits = SICXE.floatToBits(value);
+        if (inside(address, 6)) {
+            dataBreakpoints.checkWrite(address, 6);
+            if (undoLog != null) overwriting(address, 6);
+            putFloatBits(address, bits);
+            return;
+        }
         setByte(address, (int)(bits >> 40));
         setByte(address + 1, (int)(bits >> 32));
         setByte(address + 2, (int)(bits >> 24));
@@ -89,25 +436,32 @@ public class Memory {
 
     public int getByteRaw(int address) {
         if (checkAddress(address)) return 0;
-        return ((int)memory[address]) & 0xFF;
+        return read(address);
     }
 
     public void setByteRaw(int address, int value) {
         if (checkAddress(address)) return;
-        memory[address] = (byte)(value & 0xFF);
+        write(address, value);
+        written(address);
     }
 
     public int getWordRaw(int address) {
+        if (inside(address, 3)) return word(address);
         return getByteRaw(address + 2) | getByteRaw(address + 1) << 8 | getByteRaw(address) << 16;
     }
 
     public void setWordRaw(int address, int value) {
+        if (inside(address, 3)) {
+            putWord(address, value);
+            return;
+        }
         setByteRaw(address, value >> 16);
         setByteRaw(address + 1, value >> 8);
         setByteRaw(address + 2, value);
     }
 
     public double getFloatRaw(int address) {
+        if (inside(address, 6)) return SICXE.bitsToFloat(floatBits(address));
         long bits = (long)getByteRaw(address)  << 40 | (long)getByteRaw(address+1) << 32 |
                 (long)getByteRaw(address+2) << 24 | getByteRaw(address+3) << 16 |
                 getByteRaw(address+4) << 8  | getByteRaw(address+5);
@@ -116,6 +470,10 @@ public class Memory {
 
     public void setFloatRaw(int address, double value) {
         long bits = SICXE.floatToBits(value);
+        if (inside(address, 6)) {
+            putFloatBits(address, bits);
+            return;
+        }
         setByteRaw(address, (int)(bits >> 40));
         setByteRaw(address + 1, (int)(bits >> 32));
         setByteRaw(address + 2, (int)(bits >> 24));
@@ -124,4 +482,67 @@ public class Memory {
         setByteRaw(address + 5, (int)(bits));
     }
 
+    public void setBytesRaw(int address, byte[] data) {
+        if (data.length == 0 || checkAddress(address) || checkAddress(address + data.length - 1)) return;
+        if (memory != null) {
+            System.arraycopy(data, 0, memory, address, data.length);
+        } else {
+            for (int done = 0; done < data.length; ) {
+                int a = address + done;
+                int n = Math.min(PAGE_SIZE - (a & PAGE_MASK), data.length - done);
+                System.arraycopy(data, done, page(a), a & PAGE_MASK, n);
+                done += n;
+            }
+        }
+        written(address, data.length);
+    }
+
+    // whole pages for snapshots, see Snapshot
+    boolean isZero(int address, int length) {
+        length = Math.min(length, capacity - address);
+        if (memory == null) {
+            byte[] page = pages[address >> PAGE_BITS];
+            if (page == null) return true;
+            for (int i = 0; i < length; i++)
+                if (page[(address & PAGE_MASK) + i] != 0) return false;
+            return true;
+        }
+        for (int a = address; a < address + length; a++)
+            if (memory[a] != 0) return false;
+        return true;
+    }
+
+    void savePage(int address, ByteBuffer buf) {
+        int length = Math.min(PAGE_SIZE, capacity - address);
+        if (memory != null) buf.put(memory, address, length);
+        else buf.put(pages[address >> PAGE_BITS], 0, length);
+        for (int i = length; i < PAGE_SIZE; i++) buf.put((byte)0);
+    }
+
+    void loadPage(int address, ByteBuffer buf) {
+        int length = Math.min(PAGE_SIZE, capacity - address);
+        if (memory != null) buf.get(memory, address, length);
+        else buf.get(page(address), 0, length);
+        buf.position(buf.position() + PAGE_SIZE - length);
+        written(address, length);
+    }
+
+    /**
+     * Copy of the given range; bytes outside of memory are left out.
+     */
+    public byte[] getBytesRaw(int address, int length) {
+        if (address < 0 || address >= capacity) return new byte[0];
+        length = Math.max(Math.min(length, capacity - address), 0);
+        if (memory != null) return Arrays.copyOfRange(memory, address, address + length);
+        byte[] data = new byte[length];
+        for (int done = 0; done < length; ) {
+            int a = address + done;
+            int n = Math.min(PAGE_SIZE - (a & PAGE_MASK), length - done);
+            byte[] page = pages[a >> PAGE_BITS];
+            if (page != null) System.arraycopy(page, a & PAGE_MASK, data, done, n);
+            done += n;
+        }
+        return data;
+    }
+
 }
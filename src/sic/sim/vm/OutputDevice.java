@@ -20,6 +20,11 @@ public class OutputDevice extends Device {
 		}
 	}
 
+    @Override
+    public Device fork() {
+        return new OutputDevice(output);
+    }
+
     public OutputDevice(OutputStream output) {
         this.output = output;
     }
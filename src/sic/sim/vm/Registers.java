@@ -230,4 +230,14 @@ public class Registers {
         reset();
     }
 
+    public Registers copy() {
+        Registers copy = new Registers();
+        copy.PC = PC;
+        copy.A = A; copy.X = X; copy.L = L;
+        copy.B = B; copy.S = S; copy.T = T;
+        copy.F = F;
+        copy.CC = CC;
+        return copy;
+    }
+
 }
@@ -0,0 +1,151 @@
+package sic.sim.vm;
+
+/**
+ * Symmetric multiprocessor: several cores, each a Machine with its own registers running on its own host thread,
+ * sharing one flat memory and one set of devices.
+ *
+ * A program is loaded through core 0, e.g. with Loader.loadObj(smp.getCore(0), filename). Boot then starts every
+ * core at the PC of core 0 with its number in A and the number of cores in S, other registers cleared.
+ *
+ * Memory model:
+ * <ul>
+ *     <li>A core sees its own loads and stores in program order.</li>
+ *     <li>Loads and stores of other cores are seen eventually but in no particular order, and only single bytes
+ *     are atomic: another core may see a half-written word, or a later store before an earlier one.</li>
+ *     <li>CAS (compare and swap, see Opcode.CAS) is atomic and sequentially consistent with all CAS instructions
+ *     of all cores, and orders memory like a lock: everything a core wrote before a CAS is seen by another core
+ *     after its own later CAS. Release a lock and publish a flag with CAS too, and poll a flag with CAS
+ *     (with equal A and S it only reads), since a plain store is not ordered and a plain load may never see it.</li>
+ *     <li>Each core caches decoded instructions and compiled blocks on its own. A write to code cached by any core
+ *     makes every core drop its caches before its next instruction, so code written by one core is run by another
+ *     as soon as the other sees the write. Writing to code is therefore slow, but unlike writing data it is
+ *     never missed for good.</li>
+ * </ul>
+ *
+ * Devices are arbitrated: each serves one read, write or test at a time, in the order the cores asked for them.
+ * To write a whole line without interleaving, hold a lock taken with CAS.
+ *
+ * The machine stops when every core has halted (jumped to itself). If a core stops for any other reason,
+ * e.g. an invalid opcode or its budget, the other cores are stopped too and run returns that reason.
+ * An access out of bounds is reported as INVALID_ADDRESS by the core that made it.
+ */
+public class Smp {
+
+    private final Memory memory;
+    private final Devices devices;
+    private final Machine[] cores;
+    private final boolean[] halted;
+
+    public Smp(int count) {
+        if (count < 1) throw new IllegalArgumentException("An Smp needs at least one core");
+        this.memory = new Memory(Machine.MAX_ADDRESS + 1);
+        memory.share();
+        this.devices = new Devices(Machine.MAX_DEVICE + 1);
+        devices.share();
+        this.cores = new Machine[count];
+        for (int i = 0; i < count; i++)
+            cores[i] = new Machine(memory, devices);
+        this.halted = new boolean[count];
+    }
+
+    public int getCoreCount() {
+        return cores.length;
+    }
+
+    public Machine getCore(int i) {
+        return cores[i];
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public Devices getDevices() {
+        return devices;
+    }
+
+    public boolean isHalted(int core) {
+        return halted[core];
+    }
+
+    /**
+     * Sum of instructions executed by all cores.
+     */
+    public long getInstructionCount() {
+        long count = 0;
+        for (Machine core : cores) count += core.getInstructionCount();
+        return count;
+    }
+
+    /**
+     * Apply the execution modes to all cores, see Machine.setLean and Machine.setBlockExecution.
+     */
+    public void setModes(boolean lean, boolean blockExecution) {
+        for (Machine core : cores) {
+            core.setLean(lean);
+            core.setBlockExecution(blockExecution);
+        }
+    }
+
+    /**
+     * Start every core at the PC of core 0, with its number in A and the number of cores in S.
+     */
+    public void boot() {
+        int pc = cores[0].registers.getPC();
+        for (int i = 0; i < cores.length; i++) {
+            Registers r = cores[i].registers;
+            r.reset();
+            r.setPC(pc);
+            r.setA(i);
+            r.setS(cores.length);
+            halted[i] = false;
+        }
+    }
+
+    /**
+     * Run the cores that have not halted yet in parallel, until all of them halt or one stops for another reason.
+     * @param maxInstructions maximal number of instructions of each core, unlimited if not positive
+     * @param maxNanos maximal running time in nanoseconds, unlimited if not positive
+     * @return HALT if all cores halted, otherwise the reason of a core that stopped by itself
+     */
+    public StopReason run(long maxInstructions, long maxNanos) throws InterruptedException {
+        StopReason[] reasons = new StopReason[cores.length];
+        Thread[] threads = new Thread[cores.length];
+        for (Machine core : cores) core.stopping = false;
+        // cores flag their own invalid accesses, this one came from another thread, e.g. the loader
+        memory.invalidAccess = false;
+        for (int i = 0; i < cores.length; i++) {
+            if (halted[i]) continue;
+            Machine core = cores[i];
+            int id = i;
+            threads[i] = new Thread(() -> {
+                StopReason reason = core.run(maxInstructions, maxNanos, null);
+                reasons[id] = reason;
+                if (reason != StopReason.HALT) stop();
+            }, "SIC core " + i);
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads)
+                if (thread != null) thread.join();
+        } catch (InterruptedException e) {
+            stop();
+            throw e;
+        }
+        StopReason result = StopReason.HALT;
+        for (int i = 0; i < cores.length; i++) {
+            StopReason reason = reasons[i];
+            if (reason == StopReason.HALT) halted[i] = true;
+            else if (reason != null && (result == StopReason.HALT || result == StopReason.STOPPED)) result = reason;
+        }
+        return result;
+    }
+
+    /**
+     * Make a run in progress return STOPPED soon, from any thread.
+     */
+    public void stop() {
+        for (Machine core : cores) core.stop();
+    }
+
+}
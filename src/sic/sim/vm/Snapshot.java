@@ -0,0 +1,153 @@
+package sic.sim.vm;
+
+import sic.common.Logger;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Machine state saved to a binary image: registers, instruction count, JSUB stack,
+ * device positions and the non-zero pages of memory.
+ *
+ * Layout (big-endian): magic, version, memory capacity, page size,
+ * registers PC A X L B S T SW and F, instruction count,
+ * JSUB stack size and addresses, device count and positions (-1 if none),
+ * page count and for each page its index followed by its bytes.
+ */
+public class Snapshot {
+
+    public static final String EXTENSION = "snap";
+
+    private static final int MAGIC = 0x53494353;      // "SICS"
+    private static final int VERSION = 2;          // 2 widened the instruction count to a long
+
+    /**
+     * Write the state of the machine to the given file, streaming memory page by page.
+     * Must not be called while the machine is running, see Executor.stop.
+     */
+    public static boolean save(Machine machine, String filename) {
+        Memory memory = machine.memory;
+        int pageCount = (memory.getCapacity() + Memory.PAGE_SIZE - 1) >> Memory.PAGE_BITS;
+        int used = 0;
+        for (int i = 0; i < pageCount; i++)
+            if (!memory.isZero(i << Memory.PAGE_BITS, Memory.PAGE_SIZE)) used++;
+        int devices = machine.devices.count();
+        int size = 4 * 15 + 8 + 8 + 4 * machine.addressBelowJSUB.size() + 8 * devices;
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC).putInt(VERSION);
+        buf.putInt(memory.getCapacity()).putInt(Memory.PAGE_SIZE);
+        Registers r = machine.registers;
+        buf.putInt(r.getPC()).putInt(r.getA()).putInt(r.getX()).putInt(r.getL());
+        buf.putInt(r.getB()).putInt(r.getS()).putInt(r.getT()).putInt(r.getSW());
+        buf.putDouble(r.getF());
+        buf.putLong(machine.instructionCount);
+        buf.putInt(machine.addressBelowJSUB.size());
+        for (int address : machine.addressBelowJSUB) buf.putInt(address);
+        buf.putInt(devices);
+        for (int i = 0; i < devices; i++) buf.putLong(machine.devices.getDevice(i).getPosition());
+        buf.putInt(used);
+        buf.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, buf);
+            // one page at a time, the image is never held in memory as a whole
+            ByteBuffer page = ByteBuffer.allocate(4 + Memory.PAGE_SIZE);
+            for (int i = 0; i < pageCount; i++) {
+                int address = i << Memory.PAGE_BITS;
+                if (memory.isZero(address, Memory.PAGE_SIZE)) continue;
+                page.clear();
+                page.putInt(i);
+                memory.savePage(address, page);
+                page.flip();
+                write(channel, page);
+            }
+        } catch (IOException e) {
+            Logger.fmterr("Cannot write snapshot '%s'.", filename);
+            return false;
+        }
+        return true;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+
+    /**
+     * Replace the state of the machine with the one saved in the given file.
+     * The machine is left untouched if the file is not a valid snapshot.
+     */
+    public static boolean load(Machine machine, String filename) {
+        Path path = Paths.get(filename);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = buf.remaining() < 16 || buf.getInt() != MAGIC ? 0 : buf.getInt();
+            if (version < 1 || version > VERSION) {
+                Logger.fmterr("Invalid snapshot '%s'.", filename);
+                return false;
+            }
+            if (buf.getInt() != machine.memory.getCapacity() || buf.getInt() != Memory.PAGE_SIZE) {
+                Logger.fmterr("Snapshot '%s' does not match the machine memory.", filename);
+                return false;
+            }
+            if (load(machine, buf, version)) return true;
+            Logger.fmterr("Invalid snapshot '%s'.", filename);
+            return false;
+        } catch (BufferUnderflowException e) {
+            // truncated before the pages
+            Logger.fmterr("Invalid snapshot '%s'.", filename);
+            return false;
+        } catch (IOException e) {
+            Logger.fmterr("Cannot read snapshot '%s'.", filename);
+            return false;
+        }
+    }
+
+    private static boolean load(Machine machine, ByteBuffer buf, int version) {
+        int pc = buf.getInt(), a = buf.getInt(), x = buf.getInt(), l = buf.getInt();
+        int b = buf.getInt(), s = buf.getInt(), t = buf.getInt(), sw = buf.getInt();
+        double f = buf.getDouble();
+        // version 1 had an int
+        long instructionCount = version >= 2 ? buf.getLong() : buf.getInt();
+        int depth = buf.getInt();
+        if (depth < 0 || depth > buf.remaining() / 4) return false;
+        int[] jsub = new int[depth];
+        for (int i = 0; i < jsub.length; i++) jsub[i] = buf.getInt();
+        int devices = buf.getInt();
+        if (devices < 0 || devices > buf.remaining() / 8) return false;
+        long[] positions = new long[devices];
+        for (int i = 0; i < positions.length; i++) positions[i] = buf.getLong();
+        int used = buf.getInt();
+        if (used < 0 || buf.remaining() != (long)used * (4 + Memory.PAGE_SIZE)) return false;
+        int pageCount = (machine.memory.getCapacity() + Memory.PAGE_SIZE - 1) >> Memory.PAGE_BITS;
+        for (int i = 0, at = buf.position(); i < used; i++, at += 4 + Memory.PAGE_SIZE) {
+            int index = buf.getInt(at);
+            if (index < 0 || index >= pageCount) return false;
+        }
+
+        Memory memory = machine.memory;
+        memory.reset();     // also forgets the undo log
+        for (int i = 0; i < used; i++)
+            memory.loadPage(buf.getInt() << Memory.PAGE_BITS, buf);
+
+        Registers r = machine.registers;
+        r.setPC(pc); r.setA(a); r.setX(x); r.setL(l);
+        r.setB(b); r.setS(s); r.setT(t); r.setSW(sw);
+        r.setF(f);
+        machine.instructionCount = instructionCount;
+        machine.addressBelowJSUB.clear();
+        for (int address : jsub) machine.addressBelowJSUB.push(address);
+        for (int i = 0; i < positions.length && i < machine.devices.count(); i++)
+            if (positions[i] >= 0) machine.devices.getDevice(i).setPosition(positions[i]);
+        machine.clearLastExecReadWrite();
+        return true;
+    }
+
+}
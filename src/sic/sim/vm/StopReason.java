@@ -0,0 +1,14 @@
+package sic.sim.vm;
+
+/**
+ * Why Machine.run returned.
+ */
+public enum StopReason {
+    HALT,               // the last instruction jumped to itself
+    BREAKPOINT,         // PC reached a breakpoint
+    DATA_BREAKPOINT,    // a data breakpoint was triggered, PC is at the instruction that triggered it
+    INVALID_OPCODE,
+    INVALID_ADDRESS,    // memory access out of bounds
+    BUDGET,             // the instruction or time budget was used up
+    STOPPED             // stopped from another thread, e.g. because another core of an Smp stopped
+}
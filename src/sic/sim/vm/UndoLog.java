@@ -0,0 +1,168 @@
+package sic.sim.vm;
+
+/**
+ * Bounded log of what executed instructions overwrote, for stepping back.
+ * Records live in a ring of ints, so logging allocates nothing; when the ring is full the oldest records are lost.
+ *
+ * A record is written as: PC before the instruction, one int per overwritten byte (address << 8 | old value),
+ * the address popped from the JSUB stack (if any), the old values of the changed registers and finally a header
+ * with the register mask, JSUB flags and number of bytes. It is read backwards, starting at the header.
+ * Device input and output cannot be undone.
+ */
+public class UndoLog {
+
+    // register slots of the header mask, F takes two
+    private static final int A = 0, X = 1, L = 2, B = 3, S = 4, T = 5, SW = 6, F_HI = 7, F_LO = 8;
+    private static final int SLOTS = 9;
+    private static final int PUSHED = 1 << SLOTS;
+    private static final int POPPED = 1 << SLOTS + 1;
+    private static final int WRITES_SHIFT = SLOTS + 2;
+
+    private final int[] ring;
+    private final int mask;
+    private long head;                  // position of the next int
+    private long floor;                 // records that start below it were overwritten
+
+    // record in progress
+    private final int[] before = new int[SLOTS];
+    private long start;
+    private int writes;
+    private int flags;
+    private int popped;
+
+    /**
+     * @param capacity size of the ring in ints, rounded up to a power of two; a typical instruction takes three
+     */
+    public UndoLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 64) - 1) << 1;
+        this.ring = new int[size];
+        this.mask = size - 1;
+    }
+
+    public boolean isEmpty() {
+        return head == floor;
+    }
+
+    public void clear() {
+        floor = head;
+    }
+
+    private void put(int value) {
+        ring[(int)head++ & mask] = value;
+        if (head - ring.length > floor) floor = head - ring.length;
+    }
+
+    private int get(long position) {
+        return ring[(int)position & mask];
+    }
+
+    void begin(Registers r) {
+        start = head;
+        writes = 0;
+        flags = 0;
+        save(r, before);
+        put(r.getPC());
+    }
+
+    // called by Memory before the bytes are overwritten
+    void overwriting(int address, int value) {
+        put(address << 8 | value);
+        writes++;
+    }
+
+    void pushed() {
+        flags |= PUSHED;
+    }
+
+    void popped(int address) {
+        flags |= POPPED;
+        popped = address;
+    }
+
+    void commit(Registers r) {
+        if ((flags & POPPED) != 0) put(popped);
+        int f0 = (int)(Double.doubleToRawLongBits(r.getF()) >>> 32);
+        int f1 = (int)Double.doubleToRawLongBits(r.getF());
+        int changed = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int now;
+            switch (slot) {
+                case A: now = r.getA(); break;
+                case X: now = r.getX(); break;
+                case L: now = r.getL(); break;
+                case B: now = r.getB(); break;
+                case S: now = r.getS(); break;
+                case T: now = r.getT(); break;
+                case SW: now = r.getSW(); break;
+                case F_HI: now = f0; break;
+                default: now = f1;
+            }
+            if (now == before[slot]) continue;
+            put(before[slot]);
+            changed |= 1 << slot;
+        }
+        put(changed | flags | writes << WRITES_SHIFT);
+        // a record longer than the ring destroyed itself
+        if (start < floor) floor = head;
+    }
+
+    private static void save(Registers r, int[] slots) {
+        slots[A] = r.getA();
+        slots[X] = r.getX();
+        slots[L] = r.getL();
+        slots[B] = r.getB();
+        slots[S] = r.getS();
+        slots[T] = r.getT();
+        slots[SW] = r.getSW();
+        long f = Double.doubleToRawLongBits(r.getF());
+        slots[F_HI] = (int)(f >>> 32);
+        slots[F_LO] = (int)f;
+    }
+
+    /**
+     * Undo the last recorded instruction.
+     * @return false if there is nothing left to undo
+     */
+    boolean undo(Machine machine) {
+        if (head == floor) return false;
+        long p = head - 1;
+        int header = get(p);
+        int changed = header & (1 << SLOTS) - 1;
+        int count = header >>> WRITES_SHIFT;
+        int length = 1 + Integer.bitCount(changed) + ((header & POPPED) != 0 ? 1 : 0) + count + 1;
+        if (head - length < floor) {
+            floor = head;
+            return false;
+        }
+        Registers r = machine.registers;
+        long f = Double.doubleToRawLongBits(r.getF());
+        for (int slot = SLOTS - 1; slot >= 0; slot--) {
+            if ((changed & 1 << slot) == 0) continue;
+            int value = get(--p);
+            switch (slot) {
+                case A: r.setA(value); break;
+                case X: r.setX(value); break;
+                case L: r.setL(value); break;
+                case B: r.setB(value); break;
+                case S: r.setS(value); break;
+                case T: r.setT(value); break;
+                case SW: r.setSW(value); break;
+                case F_HI: f = (long)value << 32 | f & 0xFFFFFFFFL; break;
+                default: f = f & 0xFFFFFFFF00000000L | value & 0xFFFFFFFFL;
+            }
+        }
+        if ((changed & (1 << F_HI | 1 << F_LO)) != 0) r.setF(Double.longBitsToDouble(f));
+        if ((header & POPPED) != 0) machine.addressBelowJSUB.push(get(--p));
+        if ((header & PUSHED) != 0 && !machine.addressBelowJSUB.isEmpty()) machine.addressBelowJSUB.pop();
+        // restore bytes in reverse, so the oldest value of a byte written twice wins
+        for (int i = 0; i < count; i++) {
+            int entry = get(--p);
+            machine.memory.setByteRaw(entry >>> 8, entry & 0xFF);
+        }
+        r.setPC(get(--p));
+        machine.instructionCount--;
+        head = p;
+        return true;
+    }
+
+}
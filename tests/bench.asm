@@ -0,0 +1,29 @@
+. Benchmark: a tight loop of loads, stores, arithmetic and jumps, about 240 million instructions.
+. Data is written next to the code, so every store also goes through the cache invalidation.
+. Run with: java -cp out/make sic.VM -stats [-table | -blocks] [-full] tests/bench.asm
+bench	START	0
+first	LDT	#2000
+	LDS	#0
+outer	LDX	#0
+	LDA	#0
+inner	ADD	#3
+	STA	acc
+	LDCH	tab,X
+	STCH	buf,X
+	TIXR	T
+	JLT	inner
+	LDA	cnt
+	ADD	#1
+	STA	cnt
+	COMP	limit
+	JLT	outer
+	JSUB	sub
+halt	J	halt
+sub	LDB	#7
+	RSUB
+acc	RESW	1
+cnt	WORD	0
+limit	WORD	20000
+tab	BYTE	C'ABCDEFGHIJKLMNOP'
+buf	RESB	2000
+	END	first
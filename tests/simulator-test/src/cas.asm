@@ -0,0 +1,42 @@
+.## 0 80 -cores 4
+cas	START	0
+.	every core adds 2000 to count with CAS, core 0 waits for the others
+.	run with -cores 4, count ends at 8000
+.	data
+count	WORD	0
+done	WORD	0
+cores	WORD	0
+.	prog
+main	RMO	A,L	. core number
+	STS	cores
+	LDB	#1
+	LDT	#2000
+	LDX	#0
+	LDA	count
+inc	RMO	A,S	. S = A + 1
+	ADDR	B,S
+	CAS	count	. stores S if count is still A, otherwise loads count to A
+	JEQ	next
+	J	inc
+next	RMO	S,A
+	TIXR	T
+	JLT	inc
+	LDA	done
+fin	RMO	A,S
+	ADDR	B,S
+	CAS	done
+	JEQ	wait
+	J	fin
+wait	RMO	L,A
+	COMP	#0
+	JEQ	poll
+halt	J	halt
+poll	LDA	#0	. read done through CAS, which orders memory
+	CLEAR	S
+	CAS	done
+	COMP	cores
+	JLT	poll
+	LDA	count
+	CLEAR	S
+	J	halt
+	END	main
@@ -0,0 +1,96 @@
+.## 0 80
+dispat	START	0
+.	addressing modes of the instructions with handlers of their own in table dispatch, see -table
+.	data
+r1	WORD	0
+r2	WORD	0
+r3	WORD	0
+r4	WORD	0
+r5	WORD	0
+r6	WORD	0
+r7	WORD	0
+r8	WORD	0
+r9	WORD	0
+r10	WORD	0
+r11	WORD	0
+r12	WORD	0
+r13	WORD	0
+r14	WORD	0
+w	WORD	0x123456
+	WORD	0x000011
+ptr	RESW	1
+pend	RESW	1
+ch	BYTE	C'Z'
+.	prog
+main	LDA	#w
+	STA	ptr
+	LDA	#halt
+	STA	pend
+	LDA	#5	. immediate
+	ADD	#10
+	SUB	#1
+	MUL	#3
+	AND	#0x3e
+	OR	#0x100
+	LDCH	#0x41
+	STA	r1
+	LDX	#3
+	LDA	w,X	. indexed
+	STA	r2
+	LDA	w	. simple
+	ADD	w,X
+	SUB	w,X
+	MUL	w,X
+	AND	w
+	OR	w,X
+	STA	r3
+	LDCH	ch
+	STCH	r4
+	LDA	@ptr	. indirect, through the regular path
+	STA	r5
+	+LDA	w	. format 4
+	+STA	r6
+	LDX	#0
+	COMP	w
+	JEQ	eq
+	LDA	#1
+eq	STA	r7
+	COMP	#0x457
+	JLT	lt
+	JGT	gt
+	LDA	#0xeee
+	J	sto
+lt	LDA	#0xaaa
+	J	sto
+gt	LDA	#0xbbb
+sto	STA	r8
+	TIX	#2
+	TIX	#2
+	JEQ	tx
+	CLEAR	X
+tx	STX	r9
+	LDL	#0x10
+	LDB	#0x20
+	LDS	#0x30
+	LDT	#0x40
+	ADDR	S,T	. format 2
+	SUBR	L,B
+	RMO	T,A
+	COMPR	A,T
+	JEQ	f2
+	CLEAR	A
+f2	TIXR	S
+	MULR	L,A
+	STA	r10
+	JSUB	sub
+	STL	r11
+	LDL	#0
+	STX	r11
+	STB	r12
+	STS	r13
+	STT	r14
+	J	@pend
+halt	J	halt
+sub	LDS	w
+	RSUB
+	END	main
@@ -0,0 +1,18 @@
+.## 0 32
+fault	START	0
+.	accesses out of memory in the middle of a block, see -blocks
+.	data
+bad	WORD	0xfffff0
+r1	WORD	0
+r2	WORD	0
+r3	WORD	0
+.	prog
+main	LDA	#1
+	STA	r1
+	LDA	@bad	. reads out of memory
+	STA	r2
+	STA	@bad	. writes out of memory
+	LDA	#3
+	STA	r3
+halt	J	halt
+	END	main
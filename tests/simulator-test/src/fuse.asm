@@ -0,0 +1,42 @@
+.## 0 64
+fuse	START	0
+.	instruction sequences fused in compiled blocks, in loops long enough to be generated, see -blocks
+.	data
+sum	WORD	0
+eq	WORD	0
+tsum	WORD	0
+cnt	WORD	0
+tab	WORD	5	. TIX tab,X compares with the word at tab+X before X is incremented
+	WORD	0
+dst	RESB	1200
+.	prog
+main	LDT	#1200
+	LDX	#0
+l1	LDA	sum	. LDA + ADD + STA
+	ADD	#3
+	STA	sum
+	RMO	X,A
+	COMP	#700	. COMP + JEQ
+	JEQ	hit
+back	TIXR	T	. TIXR + JLT
+	JLT	l1
+	LDX	#0
+l2	LDCH	main,X	. LDCH + STCH
+	STCH	dst,X
+	TIXR	T
+	JLT	l2
+l3o	LDX	#0
+l3	TIX	tab,X
+	JLT	l3
+	RMO	X,A
+	ADD	tsum
+	STA	tsum
+	LDA	cnt
+	ADD	#1
+	STA	cnt
+	COMP	#1200
+	JLT	l3o
+halt	J	halt
+hit	STA	eq
+	J	back
+	END	main
@@ -0,0 +1,38 @@
+.## 0 48
+smc	START	0
+.	self-modifying code in loops that run long enough to be compiled and generated, see -blocks
+.	data
+r1	WORD	0
+r2	WORD	0
+lim	WORD	1200
+.	prog
+main	LDT	#1500
+	LDA	#0
+	JSUB	loop
+	STA	r1
+	LDA	#2
+	STCH	op1	. patch the code of a hot block from outside
+	LDA	r1
+	JSUB	loop
+	STA	r1
+	LDX	#0
+	CLEAR	A
+	STA	r2
+l3	RMO	X,A
+	STCH	op4	. patch the next instruction of the running block
+l4	LDA	#0
+op4	EQU	l4+2	. operand byte of l4
+	ADD	r2
+	STA	r2
+	TIX	lim
+	JLT	l3
+	LDA	r1
+halt	J	halt
+.
+loop	LDX	#0
+l1	ADD	#1
+op1	EQU	l1+2	. operand byte of l1
+	TIXR	T
+	JLT	l1
+	RSUB
+	END	main
@@ -1,13 +1,13 @@
 #!/bin/bash
 
-PROG="../sicko/sicko -rf1000"
+PROG=${PROG:-"../sicko/sicko -rf1000"}
 DIFF="diff -iEZBbw"
 LIST="tester.list"
 
-while read NAME START LEN
+while read NAME START LEN OPTS
 do
   echo -n "Testing on \"$NAME\" ... "
-  if $PROG -m$START,$LEN obj/${NAME}.obj
+  if $PROG $OPTS -m$START,$LEN obj/${NAME}.obj
   then
     if $DIFF ref/${NAME}.ref dump > /dev/null 2>&1
     then